@@ -0,0 +1,19 @@
+#!/bin/bash
+# Compile and run the JMH benchmarks
+# Usage: bench/run.sh [JMH options] (i.e. "bench/run.sh FormLayout" to only run the schedule form benchmarks)
+# Requires the BlobTV libraries in jars/ and the JMH jars (jmh-core, jmh-generator-annprocess,
+# jopt-simple and commons-math3) in bench/jars/
+
+BENCH_DIR=$(cd "$(dirname "$0")" && pwd)
+ROOT_DIR=$(dirname "$BENCH_DIR")
+OUT_DIR="$ROOT_DIR/out/bench"
+CLASSPATH="$ROOT_DIR/jars/*:$BENCH_DIR/jars/*"
+
+rm -rf "$OUT_DIR"
+mkdir -p "$OUT_DIR"
+
+# The JMH annotation processor generates the benchmark harness during compilation
+find "$ROOT_DIR/src" "$BENCH_DIR/src" -name "*.java" > "$OUT_DIR/sources.txt"
+javac -encoding UTF-8 -source 8 -target 8 -cp "$CLASSPATH" -d "$OUT_DIR" @"$OUT_DIR/sources.txt" || exit 1
+
+java -cp "$OUT_DIR:$CLASSPATH" org.openjdk.jmh.Main "$@"
@@ -0,0 +1,162 @@
+package software.blob.tv;
+
+import com.google.gson.JsonObject;
+import software.blob.tv.obj.Playlist;
+import software.blob.tv.obj.Segment;
+import software.blob.tv.obj.ShowInfo;
+import software.blob.tv.synth.LibraryGenerator;
+import software.blob.tv.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.util.Random;
+
+/**
+ * Synthetic show catalogs and libraries for the benchmarks
+ *
+ * Episodes run between 65% and 95% of a time slot and have a mid-break at every quarter,
+ * commercials come in families of similarly named spots ("Sponsor12 Spot 3") of the usual lengths.
+ * Everything is generated from the given random numbers so each fork sees the same inputs.
+ * Libraries on disk come from {@link LibraryGenerator} with its default seed.
+ */
+public class BenchLibrary {
+
+    private static final String TAG = "BenchLibrary";
+
+    private static final double[] COMMERCIAL_DURS = { 10.0, 15.0, 15.2, 20.0, 29.9, 30.0, 45.1, 60.0 };
+    private static final String[] MIDS = {
+            ShowInfo.Break.EP_B, ShowInfo.Break.EP_C, ShowInfo.Break.EP_D
+    };
+
+    /**
+     * Generate a show's episodes in memory
+     * @param show Show name
+     * @param count Number of episodes
+     * @param slotMins Time slot the episodes are made for (minutes)
+     * @param rand Random numbers
+     * @return Episodes (slot size is set)
+     */
+    public static Playlist episodes(String show, int count, int slotMins, Random rand) {
+        Playlist ret = new Playlist();
+        ret.setSlotSize(slotMins);
+        for (int i = 0; i < count; i++) {
+            String name = getEpisodeName(i);
+            Segment s = new Segment();
+            s.path = "/bench/shows/" + show + "/" + name + ".mp4";
+            s.show = show;
+            s.name = name;
+            s.title = "Episode " + (i + 1);
+            s.format = Segment.Format.SHOW;
+            s.epType = Segment.EpisodeType.NORMAL;
+            s.season = i / 20 + 1;
+            s.episode = i % 20 + 1;
+            s.end = getEpisodeDuration(slotMins, rand);
+            ret.add(s);
+        }
+        return ret;
+    }
+
+    /**
+     * Generate a pool of commercials in memory
+     * @param count Number of commercials
+     * @param rand Random numbers
+     * @return Commercials
+     */
+    public static Playlist commercials(int count, Random rand) {
+        Playlist ret = new Playlist();
+        for (int i = 0; i < count; i++) {
+            String name = getCommercialName(i);
+            Segment s = new Segment();
+            s.path = "/bench/shows/Commercials/" + name + ".mp4";
+            s.show = "Commercials";
+            s.name = s.title = name;
+            s.format = Segment.Format.COMMERCIAL;
+            s.end = COMMERCIAL_DURS[rand.nextInt(COMMERCIAL_DURS.length)];
+            ret.add(s);
+        }
+        return ret;
+    }
+
+    /**
+     * Get the break points of an episode (same as an info.js "Breaks" entry)
+     * @param ep Episode
+     * @return Break points
+     */
+    public static ShowInfo.Break getBreak(Segment ep) {
+        return new ShowInfo.Break(getBreakJson(ep.getDuration()));
+    }
+
+    /**
+     * Deep copy a playlist so it can be modified without touching the original segments
+     * @param pl Playlist
+     * @return Copy
+     */
+    public static Playlist copy(Playlist pl) {
+        Playlist ret = new Playlist();
+        ret.setSlotSize(pl.getSlotSize());
+        for (Segment s : pl)
+            ret.add(new Segment(s));
+        return ret;
+    }
+
+    /**
+     * Generate a library on disk and load its config
+     * @param home Library directory (BTV_HOME, empty)
+     * @param shows Number of shows
+     * @param episodes Number of episodes per show
+     * @param commercials Number of commercials
+     * @param slotMins Time slot size (minutes)
+     * @return Channel list file (one channel)
+     * @throws IOException Failed to generate the library
+     */
+    public static File write(File home, int shows, int episodes, int commercials, int slotMins)
+            throws IOException {
+        boolean ok = new LibraryGenerator(home)
+                .setShows(shows)
+                .setEpisodes(episodes)
+                .setCommercials(commercials)
+                .setChannels(1)
+                .setSlotSize(slotMins)
+                .generate();
+        if (!ok)
+            throw new IOException("Failed to generate library in " + home);
+        Config.load(new File(home, "config.txt"));
+        return Config.getFile("CHANNEL_INFO");
+    }
+
+    /**
+     * Delete a library written by {@link #write}
+     * @param dir Library directory
+     */
+    public static void delete(File dir) {
+        File[] files = dir.listFiles();
+        if (files != null) {
+            for (File f : files)
+                delete(f);
+        }
+        if (!dir.delete())
+            Log.e(TAG, "Failed to delete " + dir);
+    }
+
+    private static JsonObject getBreakJson(double dur) {
+        JsonObject br = new JsonObject();
+        br.addProperty(ShowInfo.Break.INTRO, 0.0);
+        for (int m = 0; m < MIDS.length; m++)
+            br.addProperty(MIDS[m], dur * (m + 1) / (MIDS.length + 1));
+        br.addProperty(ShowInfo.Break.END, dur);
+        return br;
+    }
+
+    private static double getEpisodeDuration(int slotMins, Random rand) {
+        return slotMins * 60 * (0.65 + rand.nextDouble() * 0.3);
+    }
+
+    private static String getEpisodeName(int i) {
+        return "(S" + (i / 20 + 1) + "E" + (i % 20 + 1) + ") Episode " + (i + 1);
+    }
+
+    private static String getCommercialName(int i) {
+        // 4 spots per sponsor (the same sponsor is never picked twice in a break)
+        return "Sponsor" + (i / 4 + 1) + " Spot " + (i % 4 + 1);
+    }
+}
@@ -0,0 +1,65 @@
+package software.blob.tv.builders;
+
+import org.openjdk.jmh.annotations.*;
+import software.blob.tv.BenchLibrary;
+import software.blob.tv.obj.ChannelInfo;
+import software.blob.tv.obj.Playlist;
+import software.blob.tv.util.Log;
+import software.blob.tv.util.RandUtils;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Builds a full day for one channel
+ *
+ * The library is generated in a temporary BTV_HOME: {@link #SHOWS} shows sharing "catalogSize"
+ * episodes between them, "catalogSize" commercials and one channel whose schedule has a show every
+ * "slotMins" minutes. Shows are loaded once during warmup and then come from the show cache,
+ * same as every day after the first in a generation run.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class ScheduleBuilderBenchmark {
+
+    private static final int SHOWS = 8;
+
+    // Number of episodes and commercials
+    @Param({"100", "1000", "10000"})
+    public int catalogSize;
+
+    // Time slot size (minutes)
+    @Param({"30", "60", "120"})
+    public int slotMins;
+
+    private File _home;
+    private ScheduleBuilder _builder;
+
+    @Setup
+    public void setup() throws IOException {
+        Log.setLevel("WARNING");
+        _home = Files.createTempDirectory("btv-bench").toFile();
+        File chanFile = BenchLibrary.write(_home, SHOWS, Math.max(1, catalogSize / SHOWS), catalogSize,
+                slotMins);
+        ChannelInfo channel = ChannelInfo.parseChannelList(chanFile)[0];
+        _builder = new ScheduleBuilder(channel);
+        RandUtils.setSeed(1);
+        RandUtils.seed(channel.number);
+    }
+
+    @TearDown
+    public void tearDown() {
+        BenchLibrary.delete(_home);
+    }
+
+    @Benchmark
+    public Playlist build() {
+        return _builder.build();
+    }
+}
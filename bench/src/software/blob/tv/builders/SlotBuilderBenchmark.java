@@ -0,0 +1,73 @@
+package software.blob.tv.builders;
+
+import com.google.gson.JsonObject;
+import org.openjdk.jmh.annotations.*;
+import software.blob.tv.BenchLibrary;
+import software.blob.tv.obj.ChannelInfo;
+import software.blob.tv.obj.CommercialIndex;
+import software.blob.tv.obj.Playlist;
+import software.blob.tv.obj.Segment;
+import software.blob.tv.util.Log;
+import software.blob.tv.util.RandUtils;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Fills a time slot with commercials
+ *
+ * Each invocation copies one episode (split at its mid-breaks) and inserts commercials from a pool
+ * of "catalogSize" commercials. The episodes rotate so the dead air varies like it does in a day.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class SlotBuilderBenchmark {
+
+    private static final int SLOTS = 64;
+
+    // Number of commercials
+    @Param({"100", "1000", "10000"})
+    public int catalogSize;
+
+    // Time slot size (minutes)
+    @Param({"30", "60", "120"})
+    public int slotMins;
+
+    private SlotBuilder _builder;
+    private Playlist[] _slots;
+    private int _next;
+
+    @Setup
+    public void setup() {
+        Log.setLevel("WARNING");
+        RandUtils.setSeed(1);
+        Random rand = new Random(1);
+
+        ChannelInfo channel = new ChannelInfo(null, new JsonObject());
+        channel.commercials = BenchLibrary.commercials(catalogSize, rand);
+        channel.commercialIndex = new CommercialIndex(channel.commercials);
+        _builder = new DefaultSlotBuilder().setChannelInfo(channel);
+
+        Playlist eps = BenchLibrary.episodes("Bench Show", SLOTS, slotMins, rand);
+        _slots = new Playlist[SLOTS];
+        for (int i = 0; i < SLOTS; i++) {
+            Segment ep = new Segment(eps.get(i));
+            BenchLibrary.getBreak(ep).getMidBreaks(eps, ep);
+            _slots[i] = new Playlist();
+            _slots[i].setSlotSize(slotMins);
+            _slots[i].add(0.0, ep);
+        }
+    }
+
+    @Benchmark
+    public Playlist insertCommercials() {
+        Playlist pl = BenchLibrary.copy(_slots[_next]);
+        _next = (_next + 1) % SLOTS;
+        _builder.insertCommercials(pl);
+        return pl;
+    }
+}
@@ -0,0 +1,62 @@
+package software.blob.tv.filters;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Wraps the text of schedule bumper filters
+ *
+ * "single" filters have one wrap length, "stepped" filters pick a wrap length and font size from
+ * "wraps" and "sizes" depending on how long the text is. Each invocation wraps 32 bumpers.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class TextFilterBenchmark {
+
+    private static final String[] SHOWS = {
+            "Dilbert", "Rocky & Bullwinkle", "Space Ghost Coast to Coast", "The Ren & Stimpy Show",
+            "Dexter's Laboratory", "Courage the Cowardly Dog", "Sealab 2021", "The Powerpuff Girls",
+            "Harvey Birdman, Attorney at Law", "Samurai Jack", "Futurama", "Home Movies"
+    };
+
+    private static final int BUMPERS = 32;
+
+    @Param({"single", "stepped"})
+    public String wrap;
+
+    private TextFilter[] _filters;
+
+    @Setup
+    public void setup() {
+        Random rand = new Random(1);
+        _filters = new TextFilter[BUMPERS];
+        for (int i = 0; i < BUMPERS; i++) {
+            TextFilter tf = new TextFilter();
+            tf.text = "Next: " + SHOWS[rand.nextInt(SHOWS.length)] + " at " + (rand.nextInt(12) + 1)
+                    + ":" + (rand.nextBoolean() ? "00" : "30") + ", then "
+                    + SHOWS[rand.nextInt(SHOWS.length)];
+            tf.x = 10;
+            tf.y = 20;
+            tf.size = 20;
+            if (wrap.equals("stepped")) {
+                tf.sizes = new int[] { 20, 16 };
+                tf.wraps = new int[] { 16, 24 };
+            } else
+                tf.wrap = 20;
+            _filters[i] = tf;
+        }
+    }
+
+    @Benchmark
+    public void wrapLines(Blackhole bh) {
+        for (TextFilter tf : _filters)
+            bh.consume(tf.wrapLines());
+    }
+}
@@ -0,0 +1,155 @@
+package software.blob.tv.obj;
+
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+import software.blob.tv.BenchLibrary;
+import software.blob.tv.util.Log;
+import software.blob.tv.util.RandUtils;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Playlist operations used while building a schedule
+ *
+ * The day playlist is a full day of time slots, each an episode split at its mid-breaks with
+ * commercials after every part. "addAppend" lays the day out in time order (non-push) and
+ * "addPush" pushes the commercials into the show parts at their break times, like
+ * {@link software.blob.tv.builders.SlotBuilder} does. The push benchmark has to copy the show
+ * parts first so each invocation starts over; "copy" measures just that.
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class PlaylistBenchmark {
+
+    // Number of episodes and commercials
+    @Param({"100", "1000", "10000"})
+    public int catalogSize;
+
+    // Time slot size (minutes)
+    @Param({"30", "60", "120"})
+    public int slotMins;
+
+    private Playlist _catalog;
+    private Segment[] _eps;
+    private ShowInfo.Break[] _breaks;
+    private double _slotSecs;
+
+    // Full day, the show parts of the day and the commercials pushed into them
+    private Playlist _day, _dayShows;
+    private List<Segment> _pushes;
+
+    // First slot of the day before commercials are inserted
+    private Playlist _slot;
+
+    @Setup
+    public void setup() {
+        Log.setLevel("WARNING");
+        RandUtils.setSeed(1);
+        Random rand = new Random(1);
+        _slotSecs = slotMins * 60.0;
+        _catalog = BenchLibrary.episodes("Bench Show", catalogSize, slotMins, rand);
+        Playlist commercials = BenchLibrary.commercials(catalogSize, rand);
+
+        _eps = new Segment[_catalog.size()];
+        _breaks = new ShowInfo.Break[_catalog.size()];
+        for (int i = 0; i < _eps.length; i++) {
+            _eps[i] = new Segment(_catalog.get(i));
+            _breaks[i] = BenchLibrary.getBreak(_eps[i]);
+        }
+
+        _day = new Playlist();
+        _dayShows = new Playlist();
+        _pushes = new ArrayList<>();
+        for (double slotStart = 0; slotStart < Playlist.MAX_SECS; slotStart += _slotSecs) {
+            int e = rand.nextInt(_eps.length);
+            Segment ep = new Segment(_eps[e]);
+            _breaks[e].getMidBreaks(_catalog, ep);
+
+            Playlist parts = new Playlist();
+            parts.setSlotSize(slotMins);
+            parts.add(0.0, ep);
+            if (_slot == null)
+                _slot = BenchLibrary.copy(parts);
+
+            // Split the dead air evenly between the breaks
+            double breakSecs = (_slotSecs - parts.getDuration()) / parts.size();
+            double time = slotStart;
+            for (Segment part : parts) {
+                part.setStartTime(time);
+                _day.add(time, part);
+                _dayShows.add(time, part);
+                time += part.getDuration();
+                double breakEnd = time + breakSecs;
+                while (true) {
+                    Segment c = new Segment(commercials.get(rand.nextInt(commercials.size())));
+                    if (time + c.getDuration() > breakEnd)
+                        break;
+                    c.setStartTime(time);
+                    _day.add(time, c);
+                    _pushes.add(c);
+                    time += c.getDuration();
+                }
+                time = breakEnd;
+            }
+        }
+    }
+
+    @Benchmark
+    public Playlist addAppend() {
+        Playlist pl = new Playlist();
+        for (Segment s : _day)
+            pl.add(s.startTime, s);
+        return pl;
+    }
+
+    @Benchmark
+    public Playlist addPush() {
+        Playlist pl = BenchLibrary.copy(_dayShows);
+        for (Segment c : _pushes)
+            pl.add(c.startTime, c, true);
+        return pl;
+    }
+
+    @Benchmark
+    public Playlist copy() {
+        return BenchLibrary.copy(_dayShows);
+    }
+
+    @Benchmark
+    public Segment randomSegmentMax() {
+        return _catalog.getRandomSegment(_slotSecs);
+    }
+
+    @Benchmark
+    public Segment randomSegmentRange() {
+        return _catalog.getRandomSegment(_slotSecs * 0.6, _slotSecs);
+    }
+
+    @Benchmark
+    public Playlist breakSegs() {
+        return _slot.getBreakSegs();
+    }
+
+    /**
+     * Mid-breaks for every episode of a show (what each time slot does before building)
+     */
+    @Benchmark
+    public void midBreaks(Blackhole bh) {
+        for (int i = 0; i < _eps.length; i++) {
+            _breaks[i].getMidBreaks(_catalog, _eps[i]);
+            bh.consume(_eps[i].midBreaks);
+        }
+    }
+
+    @Benchmark
+    public String toJsonString() {
+        return _day.toJsonString();
+    }
+}
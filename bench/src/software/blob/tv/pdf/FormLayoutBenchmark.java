@@ -0,0 +1,129 @@
+package software.blob.tv.pdf;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Lays out the table cells of a schedule form
+ *
+ * "pdfbox" is how the cells were laid out before the glyph advance table and layout cache,
+ * "glyphTable" measures with {@link FontMetrics} but doesn't cache anything and "cached" is
+ * what {@link ScheduleForm} does now. Each invocation lays out one form (96 slots).
+ */
+@State(Scope.Thread)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(1)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+public class FormLayoutBenchmark {
+
+    private static final String[] SHOWS = {
+            "Dilbert", "Rocky & Bullwinkle", "Space Ghost Coast to Coast", "The Ren & Stimpy Show",
+            "Dexter's Laboratory", "Courage the Cowardly Dog", "Sealab 2021", "The Powerpuff Girls",
+            "Johnny Bravo", "Cow and Chicken", "I Am Weasel", "Home Movies", "Aqua Teen Hunger Force",
+            "Harvey Birdman, Attorney at Law", "Samurai Jack", "Futurama"
+    };
+
+    private static final String[] EPISODES = {
+            "The Knack", "Bullwinkle's Corner", "Gilligan", "Space Madness", "Dial M for Monkey",
+            "Freaky Fred", "Fusion Cuisine", "Mime for a Change", "Jungle Boy in Mr. Monkeyman",
+            "Buffalo Gals", "I Are Gladiator", "Bad Influence", "Mayhem of the Mooninites",
+            "Shoyu Weenie", "Episode I: The Beginning", "Space Pilot 3000", "The Series Has Landed",
+            "Crazy Dimitri, Happy Hour and The Bad Guy Returns from a Very Long Vacation"
+    };
+
+    private static final int ROWS = 96;
+    private static final int FONT_SIZE = 12;
+    private static final float TIME_WIDTH = 52, SHOW_WIDTH = 150, EPISODE_WIDTH = 326;
+
+    private PDFont _font;
+    private FontMetrics _metrics;
+    private String[] _times, _shows, _episodes;
+
+    @Setup
+    public void setup() {
+        _font = PDType1Font.HELVETICA;
+        _metrics = FontMetrics.get(_font);
+        Random rand = new Random(1);
+        _times = new String[ROWS];
+        _shows = new String[ROWS];
+        _episodes = new String[ROWS];
+        for (int i = 0; i < ROWS; i++) {
+            _times[i] = String.format("%d:%02d %s", (i / 2) % 12 + 1, (i % 2) * 30, i < 48 ? "AM" : "PM");
+            _shows[i] = SHOWS[rand.nextInt(SHOWS.length)];
+            _episodes[i] = EPISODES[rand.nextInt(EPISODES.length)];
+        }
+    }
+
+    @Benchmark
+    public void pdfbox(Blackhole bh) throws IOException {
+        for (int i = 0; i < ROWS; i++) {
+            bh.consume(legacyShrink(_times[i], TIME_WIDTH));
+            for (String line : legacyWrap(_shows[i], SHOW_WIDTH))
+                bh.consume(legacyWidth(line));
+            for (String line : legacyWrap(_episodes[i], EPISODE_WIDTH))
+                bh.consume(legacyWidth(line));
+        }
+    }
+
+    @Benchmark
+    public void glyphTable(Blackhole bh) {
+        for (int i = 0; i < ROWS; i++) {
+            bh.consume(CellLayout.shrink(_metrics, _times[i], FONT_SIZE, TIME_WIDTH));
+            bh.consume(CellLayout.wrap(_metrics, _shows[i], FONT_SIZE, SHOW_WIDTH));
+            bh.consume(CellLayout.wrap(_metrics, _episodes[i], FONT_SIZE, EPISODE_WIDTH));
+        }
+    }
+
+    @Benchmark
+    public void cached(Blackhole bh) {
+        for (int i = 0; i < ROWS; i++) {
+            bh.consume(CellLayout.get(_metrics, _times[i], FONT_SIZE, TIME_WIDTH, false));
+            bh.consume(CellLayout.get(_metrics, _shows[i], FONT_SIZE, SHOW_WIDTH, true));
+            bh.consume(CellLayout.get(_metrics, _episodes[i], FONT_SIZE, EPISODE_WIDTH, true));
+        }
+    }
+
+    private float legacyWidth(String txt) throws IOException {
+        return _font.getStringWidth(txt) * (FONT_SIZE / 1000.0f);
+    }
+
+    private int legacyShrink(String txt, float maxWidth) throws IOException {
+        float lineWidth = legacyWidth(txt);
+        return lineWidth > maxWidth ? (int) (maxWidth * (FONT_SIZE / lineWidth)) : FONT_SIZE;
+    }
+
+    private List<String> legacyWrap(String txt, float maxWidth) throws IOException {
+        List<String> lines = new ArrayList<>();
+        String[] words = txt.split(" ");
+        StringBuilder sb = new StringBuilder();
+        float totalWidth = 0;
+        float spaceWidth = legacyWidth(" ");
+        for (int i = 0; i < words.length; i++) {
+            totalWidth += legacyWidth(words[i]);
+            if (totalWidth > maxWidth) {
+                if (sb.length() > 0)
+                    lines.add(sb.toString());
+                sb = new StringBuilder();
+                totalWidth = 0;
+            }
+            sb.append(words[i]);
+            if (i < words.length - 1) {
+                sb.append(" ");
+                totalWidth += spaceWidth;
+            }
+        }
+        if (sb.length() > 0)
+            lines.add(sb.toString());
+        return lines;
+    }
+}
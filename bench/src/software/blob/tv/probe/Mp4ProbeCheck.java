@@ -0,0 +1,209 @@
+package software.blob.tv.probe;
+
+import software.blob.tv.util.Log;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Arrays;
+
+/**
+ * Self-check for {@link Mp4Probe} against small generated MP4 files
+ *
+ * Each fixture is just the boxes the prober reads (no media data): version 0 and 1 movie headers,
+ * the track duration fallback, edit lists with empty edits and media time offsets, non-A/V tracks,
+ * 64-bit box sizes, and truncated or corrupt boxes that must fail with an IOException.
+ */
+public class Mp4ProbeCheck {
+
+    private static final String TAG = "Mp4ProbeCheck";
+
+    private static final double EPSILON = 1e-9;
+
+    private int _passed, _failed;
+
+    public static void main(String[] args) throws IOException {
+        Mp4ProbeCheck check = new Mp4ProbeCheck();
+        check.run();
+        Log.flush();
+        System.exit(check._failed > 0 ? 1 : 0);
+    }
+
+    private void run() throws IOException {
+        // Movie header only
+        expect("mvhd v0", file(moov(mvhd(0, 1000, 1234567))), 1234.567, 0);
+        expect("mvhd v1 (64-bit duration)", file(moov(mvhd(1, 90000, 90000L * 50000))), 50000, 0);
+
+        // No movie duration - use the longest track
+        expect("tkhd v0 fallback", file(moov(mvhd(0, 600, 0),
+                trak(tkhd(0, 1200), null, mdia(mdhd(0, 600), "vide")),
+                trak(tkhd(0, 3000), null, mdia(mdhd(0, 44100), "soun")))), 5, 0);
+        expect("tkhd v1 fallback", file(moov(mvhd(1, 1000, 0),
+                trak(tkhd(1, 7000000000L), null, mdia(mdhd(1, 1000), "vide")))), 7000000, 0);
+
+        // Edit lists
+        expect("elst v0 media time offset", file(moov(mvhd(0, 1000, 60000),
+                trak(tkhd(0, 60000), elst(0, 60000, 1001), mdia(mdhd(0, 30000), "vide")))),
+                60, -1001 / 30000.0);
+        expect("elst v1 media time offset", file(moov(mvhd(1, 1000, 60000),
+                trak(tkhd(1, 60000), elst(1, 60000, 2048), mdia(mdhd(1, 48000), "soun")))),
+                60, -2048 / 48000.0);
+        expect("elst empty edit", file(moov(mvhd(0, 1000, 60000),
+                trak(tkhd(0, 60000), elst(0, 500, -1, 59500, 0), mdia(mdhd(0, 90000), "vide")))),
+                60, 0.5);
+        expect("earliest A/V track", file(moov(mvhd(0, 1000, 60000),
+                trak(tkhd(0, 60000), elst(0, 250, -1, 59750, 0), mdia(mdhd(0, 90000), "vide")),
+                trak(tkhd(0, 60000), elst(0, 60000, 4800), mdia(mdhd(0, 48000), "soun")),
+                trak(tkhd(0, 60000), elst(0, 60000, 90000), mdia(mdhd(0, 1000), "text")))),
+                60, -0.1);
+
+        // Box layout
+        expect("moov after media data", file(ftyp(), box("mdat", new byte[64]),
+                moov(mvhd(0, 1000, 2500))), 2.5, 0);
+        expect("64-bit moov size", file(ftyp(), largeBox("moov", mvhd(0, 1000, 2500))), 2.5, 0);
+
+        // Invalid files
+        byte[] valid = file(ftyp(), moov(mvhd(0, 1000, 2500)));
+        expectFailure("truncated mvhd", Arrays.copyOf(valid, valid.length - 90));
+        expectFailure("truncated box header", Arrays.copyOf(valid, 30));
+        byte[] corrupt = valid.clone();
+        corrupt[24] = corrupt[25] = corrupt[26] = 0;
+        corrupt[27] = 4; // moov size smaller than its header
+        expectFailure("corrupt box size", corrupt);
+        expectFailure("missing moov", file(ftyp(), box("mdat", new byte[16])));
+        expectFailure("missing mvhd", file(moov(trak(tkhd(0, 1000), null, mdia(mdhd(0, 1000), "vide")))));
+
+        Log.d(TAG, _passed + " passed, " + _failed + " failed");
+    }
+
+    private void expect(String name, byte[] data, double duration, double streamStart) throws IOException {
+        Mp4Probe.Result res = probe(data);
+        if (Math.abs(res.duration - duration) < EPSILON && Math.abs(res.streamStart - streamStart) < EPSILON) {
+            _passed++;
+            Log.d(TAG, "PASS " + name);
+        } else {
+            _failed++;
+            Log.e(TAG, "FAIL " + name + ": expected duration: " + duration + ", start: " + streamStart
+                    + " but got " + res);
+        }
+    }
+
+    private void expectFailure(String name, byte[] data) throws IOException {
+        try {
+            Mp4Probe.Result res = probe(data);
+            _failed++;
+            Log.e(TAG, "FAIL " + name + ": expected an error but got " + res);
+        } catch (IOException e) {
+            _passed++;
+            Log.d(TAG, "PASS " + name + " (" + e.getMessage() + ")");
+        }
+    }
+
+    private static Mp4Probe.Result probe(byte[] data) throws IOException {
+        File tmp = File.createTempFile("probe", ".mp4");
+        try {
+            Files.write(tmp.toPath(), data);
+            return Mp4Probe.probe(tmp);
+        } finally {
+            if (!tmp.delete())
+                Log.w(TAG, "Failed to delete " + tmp);
+        }
+    }
+
+    /* Fixture boxes (only the fields the prober reads are set) */
+
+    private static byte[] file(byte[]... boxes) {
+        return concat(boxes);
+    }
+
+    private static byte[] ftyp() {
+        return box("ftyp", concat(fourCC("isom"), u32(0x200), fourCC("isom"), fourCC("mp41")));
+    }
+
+    private static byte[] moov(byte[]... children) {
+        return box("moov", concat(children));
+    }
+
+    private static byte[] mvhd(int version, long timescale, long duration) {
+        byte[] times = version == 1 ? concat(u64(0), u64(0), u32(timescale), u64(duration))
+                : concat(u32(0), u32(0), u32(timescale), u32(duration));
+        return fullBox("mvhd", version, concat(times, new byte[80]));
+    }
+
+    /**
+     * Track box
+     * @param tkhd Track header
+     * @param elst Edit list (null if none)
+     * @param mdia Media box
+     * @return Box data
+     */
+    private static byte[] trak(byte[] tkhd, byte[] elst, byte[] mdia) {
+        return box("trak", elst != null ? concat(tkhd, box("edts", elst), mdia) : concat(tkhd, mdia));
+    }
+
+    private static byte[] tkhd(int version, long duration) {
+        byte[] fields = version == 1 ? concat(u64(0), u64(0), u32(1), u32(0), u64(duration))
+                : concat(u32(0), u32(0), u32(1), u32(0), u32(duration));
+        return fullBox("tkhd", version, concat(fields, new byte[60]));
+    }
+
+    private static byte[] mdia(byte[] mdhd, String handler) {
+        byte[] hdlr = fullBox("hdlr", 0, concat(u32(0), fourCC(handler), new byte[12], new byte[1]));
+        return box("mdia", concat(mdhd, hdlr));
+    }
+
+    private static byte[] mdhd(int version, long timescale) {
+        byte[] fields = version == 1 ? concat(u64(0), u64(0), u32(timescale), u64(0))
+                : concat(u32(0), u32(0), u32(timescale), u32(0));
+        return fullBox("mdhd", version, concat(fields, new byte[4]));
+    }
+
+    /**
+     * Edit list box
+     * @param version Box version
+     * @param edits Segment duration and media time of each edit (media time -1 = empty edit)
+     * @return Box data
+     */
+    private static byte[] elst(int version, long... edits) {
+        byte[][] entries = new byte[edits.length / 2 + 1][];
+        entries[0] = u32(edits.length / 2);
+        for (int i = 0; i < edits.length; i += 2) {
+            entries[i / 2 + 1] = version == 1 ? concat(u64(edits[i]), u64(edits[i + 1]), u32(0x10000))
+                    : concat(u32(edits[i]), u32(edits[i + 1]), u32(0x10000));
+        }
+        return fullBox("elst", version, concat(entries));
+    }
+
+    private static byte[] fullBox(String type, int version, byte[] content) {
+        return box(type, concat(u32((long) version << 24), content));
+    }
+
+    private static byte[] box(String type, byte[] content) {
+        return concat(u32(8 + content.length), fourCC(type), content);
+    }
+
+    private static byte[] largeBox(String type, byte[] content) {
+        return concat(u32(1), fourCC(type), u64(16 + content.length), content);
+    }
+
+    private static byte[] fourCC(String type) {
+        return type.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    private static byte[] u32(long value) {
+        return new byte[] { (byte) (value >> 24), (byte) (value >> 16), (byte) (value >> 8), (byte) value };
+    }
+
+    private static byte[] u64(long value) {
+        return concat(u32(value >>> 32), u32(value));
+    }
+
+    private static byte[] concat(byte[]... parts) {
+        ByteArrayOutputStream bos = new ByteArrayOutputStream();
+        for (byte[] part : parts)
+            bos.write(part, 0, part.length);
+        return bos.toByteArray();
+    }
+}
@@ -3,15 +3,36 @@ package software.blob.tv;
 import software.blob.tv.builders.ScheduleBuilder;
 import software.blob.tv.gui.BuilderGUI;
 import software.blob.tv.obj.*;
+import software.blob.tv.pdf.FormRenderer;
+import software.blob.tv.pdf.GuideForm;
 import software.blob.tv.pdf.ScheduleForm;
+import software.blob.tv.probe.DurationProber;
+import software.blob.tv.server.ScheduleDaemon;
+import software.blob.tv.synth.LibraryGenerator;
 import software.blob.tv.util.FileUtils;
 import software.blob.tv.util.Log;
+import software.blob.tv.util.Metrics;
+import software.blob.tv.util.RandUtils;
+import software.blob.tv.xmltv.XmltvGuide;
 
 import javax.swing.*;
 import java.io.File;
 import java.io.IOException;
+import java.text.SimpleDateFormat;
+import java.util.ArrayList;
+import java.util.Calendar;
+import java.util.Collection;
+import java.util.Date;
 import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
 import java.util.Map;
+import java.util.Set;
+import java.util.TreeSet;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
 
 /**
@@ -23,74 +44,677 @@ public class CLInterface {
 
     public static void main(String[] args) {
         Config.load(new File("config.txt"));
+        initLog();
+        initRandom();
         if(args.length == 0) {
             SwingUtilities.invokeLater(CLInterface::showGUI);
+        } else if (args[0].equals("catalog")) {
+            compileCatalog();
+        } else if (args[0].equals("probe")) {
+            probeDurations(args.length > 1 ? args[1] : Config.get("SHOW_DIR") + File.separator);
+        } else if (args[0].equals("refresh")) {
+            refreshDurations(args.length > 1 ? args[1] : Config.get("SHOW_DIR") + File.separator);
+        } else if (args[0].equals("rebuild")) {
+            int[] numbers = parseNumbers(args, 1, "rebuild <channel numbers>");
+            if (numbers != null) {
+                List<Integer> channels = new ArrayList<>();
+                for (int n : numbers)
+                    channels.add(n);
+                rebuildChannels(channels);
+            }
+        } else if (args[0].equals("daemon")) {
+            new ScheduleDaemon().start();
+        } else if (args[0].equals("convert") && args.length > 2) {
+            convertPlaylist(new File(args[1]), new File(args[2]));
+        } else if (args[0].equals("synth") && args.length > 1) {
+            int[] counts = parseNumbers(args, 2,
+                    "synth <directory> [shows] [episodes] [commercials] [channels] [slot minutes]");
+            if (counts != null)
+                generateLibrary(new File(args[1]), counts);
         } else {
             genRandomSched();
         }
     }
 
+    /**
+     * Apply the log settings from the config ("LOG_LEVEL" and "LOG_JSON")
+     */
+    private static void initLog() {
+        String level = Config.get("LOG_LEVEL");
+        if (level != null && !level.isEmpty())
+            Log.setLevel(level.trim());
+        Log.setJson(Boolean.parseBoolean(Config.get("LOG_JSON")));
+    }
+
+    /**
+     * Parse the numeric arguments of a command
+     * @param args Command line arguments
+     * @param start Index of the first number
+     * @param usage Command usage (logged if an argument isn't a number)
+     * @return Numbers or null if an argument isn't a number
+     */
+    private static int[] parseNumbers(String[] args, int start, String usage) {
+        int[] ret = new int[Math.max(0, args.length - start)];
+        for (int i = 0; i < ret.length; i++) {
+            try {
+                ret[i] = Integer.parseInt(args[start + i]);
+            } catch (NumberFormatException e) {
+                Log.e(TAG, "Invalid number: " + args[start + i] + " (usage: " + usage + ")");
+                return null;
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Use the seed from the config ("RAND_SEED") so a previous run can be replayed
+     */
+    private static void initRandom() {
+        String seed = Config.get("RAND_SEED");
+        if (seed == null || seed.isEmpty())
+            return;
+        try {
+            RandUtils.setSeed(Long.parseLong(seed.trim()));
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid RAND_SEED: " + seed);
+        }
+    }
+
+    /**
+     * Probe video durations and stream starts (replacement for scripts/durations.sh)
+     * @param filter Show directory prefix
+     */
+    public static void probeDurations(String filter) {
+        DurationProber prober = new DurationProber();
+        try {
+            int count = prober.probeDirectories(DurationProber.findDirectories(filter));
+            Log.d(TAG, "Probed " + count + " directories");
+        } finally {
+            prober.shutdown();
+        }
+    }
+
+    /**
+     * Probe new or modified videos and update the durations and stream starts
+     * Shows that changed are dropped from the show cache
+     * @param filter Show directory prefix
+     * @return Show directories that changed
+     */
+    public static List<File> refreshDurations(String filter) {
+        DurationProber prober = new DurationProber();
+        List<File> changed;
+        try {
+            changed = prober.refreshDirectories(DurationProber.findDirectories(filter));
+        } finally {
+            prober.shutdown();
+        }
+        for (File dir : changed) {
+            Log.d(TAG, "Show changed: " + dir.getName());
+            ShowCache.invalidate(dir);
+        }
+        Log.d(TAG, "Refreshed " + changed.size() + " directories");
+        ShowCache.save();
+        return changed;
+    }
+
+    /**
+     * Convert a playlist between the JSON and binary formats
+     * @param input JSON or binary playlist
+     * @param output Converted playlist
+     */
+    public static void convertPlaylist(File input, File output) {
+        if (BinaryPlaylist.convert(input, output))
+            Log.d(TAG, "Converted " + input + " to " + output);
+        else
+            Log.e(TAG, "Failed to convert " + input);
+    }
+
+    /**
+     * Write a synthetic library for load testing
+     * Uses "RAND_SEED" as the seed if it's set (otherwise the same library is always generated)
+     * @param dir Library directory (must be empty)
+     * @param counts Number of shows, episodes per show, commercials, channels and the time slot size,
+     *               in that order (the rest are left at their defaults)
+     */
+    public static void generateLibrary(File dir, int[] counts) {
+        LibraryGenerator gen = new LibraryGenerator(dir);
+        if (counts.length > 0)
+            gen.setShows(counts[0]);
+        if (counts.length > 1)
+            gen.setEpisodes(counts[1]);
+        if (counts.length > 2)
+            gen.setCommercials(counts[2]);
+        if (counts.length > 3)
+            gen.setChannels(counts[3]);
+        if (counts.length > 4)
+            gen.setSlotSize(counts[4]);
+        if (Config.get("RAND_SEED") != null)
+            gen.setSeed(RandUtils.getSeed());
+        if (!gen.generate())
+            Log.e(TAG, "Failed to generate library in " + dir);
+    }
+
+    /**
+     * Parse every show directory and write the results to the show catalog
+     */
+    public static void compileCatalog() {
+        File[] shows = Config.getFile("SHOW_DIR").listFiles(File::isDirectory);
+        if (shows == null) {
+            Log.e(TAG, "Failed to list show directory");
+            return;
+        }
+        int count = 0;
+        for (File show : shows) {
+            // Include nested directories such as "Break Bumpers"
+            File[] subDirs = show.listFiles(File::isDirectory);
+            if (subDirs != null) {
+                for (File dir : subDirs)
+                    count += new Playlist(dir).isEmpty() ? 0 : 1;
+            }
+            count += new Playlist(show).isEmpty() ? 0 : 1;
+        }
+        Log.d(TAG, "Cataloged " + count + " directories");
+        ShowCache.save();
+    }
+
     public static void genRandomSched() {
         ChannelInfo[] cInfos = ChannelInfo.parseChannelList(Config.getFile("CHANNEL_INFO"));
         LogoColors colors = LogoColors.load(Config.getFile("LOGO_COLORS"));
-        Map<Integer, Channel> channels = new HashMap<>();
+        genChannels(cInfos, colors);
 
-        for(ChannelInfo c : cInfos) {
-            Playlist pl;
-            Schedule sched;
-            if (c.schedule != null && c.schedule.isDirectory()) {
-                // No rules - just fill entire playlist with non-stop episodes
-                pl = ScheduleBuilder.buildForShow(c.schedule);
+        // Keep parsed show metadata for the next run
+        ShowCache.save();
+    }
 
-                Log.d(TAG, "Generated channel " + c.number + ": " + c.name);
-                double[] gaps = pl.getMaxGaps();
-                Log.d(TAG, "Min gap: " + gaps[0] + ", Max gap: " + gaps[1]);
+    /**
+     * Generate every channel for today and the following days ("GEN_DAYS")
+     * The show catalog and commercial pools are loaded once and shared by every day
+     * @param cInfos Channel info list (in the order defined by channels.js)
+     * @param colors Logo colors for the schedule forms
+     * @return True if every channel's playlist was written for every day (the guides aren't included)
+     */
+    public static boolean genChannels(ChannelInfo[] cInfos, LogoColors colors) {
+        Log.d(TAG, "Random seed: " + RandUtils.getSeed() + " (set RAND_SEED to replay this run)");
 
-                FileUtils.writeToFile(Config.getFile("CHANNEL_PLAYLISTS_DIR", c.playlist),
-                        pl.toJsonString());
-                continue;
+        // The combined guide replaces the separate schedule form for each channel
+        GuideForm guideForm = null;
+        String guidePdf = Config.get("GUIDE_PDF");
+        if (guidePdf != null && !guidePdf.isEmpty()) {
+            try {
+                guideForm = new GuideForm(colors);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to create guide PDF", e);
+            }
+        }
+
+        XmltvGuide guide = null;
+        String xmltv = Config.get("XMLTV_FILE");
+        if (xmltv != null && !xmltv.isEmpty()) {
+            try {
+                guide = new XmltvGuide(cInfos);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to create XMLTV guide", e);
+            }
+        }
+
+        boolean generated = genDays(cInfos, colors, guide, guideForm);
+
+        if (guide != null) {
+            guide.save(new File(xmltv));
+            try {
+                guide.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close XMLTV guide", e);
+            }
+        }
+        if (guideForm != null) {
+            long start = System.nanoTime();
+            guideForm.save(new File(guidePdf));
+            Metrics.time("guide_save", start);
+            try {
+                guideForm.close();
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to close guide PDF", e);
             }
-            Channel copy = channels.get(c.copyChannel);
-            if (copy != null) {
-                // Copy existing schedule/playlist with time offset
-                int offsetMins = c.copyChannelOffset * 60;
-                sched = Schedule.copy(copy.schedule, offsetMins);
-                pl = new Playlist(copy.playlist);
-                pl.timeShift(offsetMins);
-                Log.d(TAG, "Generated channel " + c.number + ": " + c.name + " from "
-                        + copy.channelInfo.name + " with " + c.copyChannelOffset + " hour offset ");
-                // Need to write out schedule for client-side
-                if (c.schedule != null) {
-                    FileUtils.writeToFile(c.schedule, sched.toJsonString());
-                } else {
-                    Log.e(TAG, "Missing schedule definition for channel " + c.number);
+        }
+        exportMetrics();
+        return generated;
+    }
+
+    /**
+     * Write the timers and counters for the run ("METRICS_JSON" and "METRICS_PROM")
+     */
+    private static void exportMetrics() {
+        String json = Config.get("METRICS_JSON"), prom = Config.get("METRICS_PROM");
+        Metrics.export(json != null && !json.isEmpty() ? new File(json) : null,
+                prom != null && !prom.isEmpty() ? new File(prom) : null);
+    }
+
+    /**
+     * Generate every channel for today and the following days ("GEN_DAYS")
+     * @param cInfos Channel info list (in the order defined by channels.js)
+     * @param colors Logo colors for the schedule forms
+     * @param guide XMLTV guide to add each day to (null to skip)
+     * @param guideForm Combined schedule guide to add each day to (null for a form per channel)
+     * @return True if every channel's playlist was written for every day
+     */
+    private static boolean genDays(ChannelInfo[] cInfos, LogoColors colors, XmltvGuide guide,
+                                   GuideForm guideForm) {
+        int days = Math.max(1, Config.getInt("GEN_DAYS", 1));
+        Calendar cal = Calendar.getInstance();
+        Set<Integer> failed = ConcurrentHashMap.newKeySet();
+        for (int day = 0; day < days; day++) {
+            Date date = cal.getTime();
+            Map<Integer, Channel> channels = genChannels(cInfos, colors, date, day == 0, guideForm == null, failed);
+            if (day == 0)
+                deleteDatedPlaylists(cInfos, date);
+            if (guide != null)
+                guide.addDay(cInfos, channels, date);
+            if (guideForm != null) {
+                // A page that fails to draw is left out of the guide, the playlists are already written
+                try {
+                    guideForm.addDay(cInfos, channels, date);
+                } catch (Exception e) {
+                    Log.e(TAG, "Failed to add " + new SimpleDateFormat("yyyy-MM-dd").format(date)
+                            + " to the guide PDF", e);
                 }
-            } else {
-                // Load schedule and generate playlist
-                sched = Schedule.load(c.schedule);
-                if (sched == null)
-                    continue;
+            }
+            cal.add(Calendar.DAY_OF_MONTH, 1);
+        }
+        if (!failed.isEmpty())
+            Log.e(TAG, "Failed to write the playlists for channels " + new TreeSet<>(failed));
+        return failed.isEmpty();
+    }
+
+    /**
+     * Generate the playlists, schedules and schedule forms for every channel
+     * Uses "GEN_THREADS" threads
+     * @param cInfos Channel info list (in the order defined by channels.js)
+     * @param colors Logo colors for the schedule forms
+     * @param date Date to generate
+     * @param today True if the date is today (later dates are written to dated playlists)
+     * @return Generated channels mapped by number
+     */
+    public static Map<Integer, Channel> genChannels(ChannelInfo[] cInfos, LogoColors colors,
+                                                    Date date, boolean today) {
+        return genChannels(cInfos, colors, date, today, true, ConcurrentHashMap.newKeySet());
+    }
+
+    private static Map<Integer, Channel> genChannels(ChannelInfo[] cInfos, LogoColors colors, Date date,
+                                                     boolean today, boolean channelForms, Set<Integer> failed) {
+        // Forms are rendered in the background while the remaining channels are generated
+        FormRenderer forms = channelForms ? new FormRenderer() : null;
+        try {
+            int threads = Config.getInt("GEN_THREADS", 1);
+            if (threads > 1)
+                return genParallel(cInfos, colors, forms, threads, date, today, failed);
+            Map<Integer, Channel> channels = new HashMap<>();
+            for (ChannelInfo c : cInfos) {
+                Channel chan = genChannel(c, channels.get(c.copyChannel), colors, forms, date, today, failed);
+                if (chan != null)
+                    channels.put(c.number, chan);
+            }
+            Metrics.clearChannel();
+            return channels;
+        } finally {
+            if (forms != null)
+                forms.finish();
+        }
+    }
+
+    /**
+     * Generate channels concurrently on a bounded thread pool
+     * Copy channels are chained onto the channel they copy from, so they only
+     * wait on that channel instead of the entire batch
+     * @param cInfos Channel info list (in the order defined by channels.js)
+     * @param colors Logo colors for the schedule forms
+     * @param forms Renderer for the schedule forms (null to skip)
+     * @param threads Number of worker threads
+     * @param date Date to generate
+     * @param today True if the date is today
+     * @param failed Channels whose playlists couldn't be written are added to this set
+     * @return Generated channels mapped by number
+     */
+    private static Map<Integer, Channel> genParallel(ChannelInfo[] cInfos, LogoColors colors, FormRenderer forms,
+                                                     int threads, Date date, boolean today, Set<Integer> failed) {
+        ExecutorService pool = Executors.newFixedThreadPool(threads);
+        Map<Integer, CompletableFuture<Channel>> channels = new HashMap<>();
+        List<CompletableFuture<Channel>> tasks = new ArrayList<>();
+        try {
+            for (ChannelInfo c : cInfos) {
+                // Same as the serial path: only channels defined earlier can be copied
+                CompletableFuture<Channel> source = channels.get(c.copyChannel);
+                CompletableFuture<Channel> task;
+                if (source != null)
+                    task = source.thenApplyAsync(
+                            copy -> genChannelSafe(c, copy, colors, forms, date, today, failed), pool);
+                else
+                    task = CompletableFuture.supplyAsync(
+                            () -> genChannelSafe(c, null, colors, forms, date, today, failed), pool);
+                channels.put(c.number, task);
+                tasks.add(task);
+            }
+            CompletableFuture.allOf(tasks.toArray(new CompletableFuture<?>[0])).join();
+        } finally {
+            pool.shutdown();
+        }
+        Map<Integer, Channel> ret = new HashMap<>();
+        for (Map.Entry<Integer, CompletableFuture<Channel>> e : channels.entrySet()) {
+            Channel chan = e.getValue().join();
+            if (chan != null)
+                ret.put(e.getKey(), chan);
+        }
+        return ret;
+    }
+
+    private static Channel genChannelSafe(ChannelInfo c, Channel copy, LogoColors colors, FormRenderer forms,
+                                          Date date, boolean today, Set<Integer> failed) {
+        try {
+            return genChannel(c, copy, colors, forms, date, today, failed);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to generate channel " + c.number, e);
+            failed.add(c.number);
+            return null;
+        } finally {
+            Metrics.clearChannel();
+        }
+    }
+
+    /**
+     * Generate the playlist, schedule and schedule form for a single channel
+     * @param c Channel info
+     * @param copy The generated channel this channel copies from (null if N/A)
+     * @param colors Logo colors for the schedule form
+     * @param forms Renderer to queue the schedule form on (null to skip)
+     * @param date Date to generate
+     * @param today True if the date is today (later dates are written to dated playlists)
+     * @param failed The channel is added to this set if its playlist couldn't be written
+     * @return Generated channel or null if the channel can't be copied from
+     */
+    private static Channel genChannel(ChannelInfo c, Channel copy, LogoColors colors, FormRenderer forms,
+                                      Date date, boolean today, Set<Integer> failed) {
+        Playlist pl;
+        Schedule sched;
+        String dateStr = today ? "" : " for " + new SimpleDateFormat("yyyy-MM-dd").format(date);
+        RandUtils.seed(c.number, getDayKey(date));
+        Metrics.setChannel(c.number);
+        long start = System.nanoTime();
+        if (c.schedule != null && c.schedule.isDirectory()) {
+            // No rules - just fill entire playlist with non-stop episodes
+            pl = today ? loadDatedPlaylist(c, date) : null;
+            if (pl == null)
+                pl = ScheduleBuilder.buildForShow(c.schedule);
+
+            Log.d(TAG, "Generated channel " + c.number + ": " + c.name + dateStr);
+            double[] gaps = pl.getMaxGaps();
+            Log.d(TAG, "Min gap: " + gaps[0] + ", Max gap: " + gaps[1]);
+
+            if (!publishPlaylist(c, pl, date, today))
+                failed.add(c.number);
+            Metrics.time("channel", start);
+            Metrics.count("segments", pl.size());
+            return null;
+        }
+        if (copy != null) {
+            // Copy existing schedule/playlist with time offset
+            int offsetMins = c.copyChannelOffset * 60;
+            sched = Schedule.copy(copy.schedule, offsetMins);
+            pl = shiftPlaylist(copy.playlist, offsetMins);
+            Log.d(TAG, "Generated channel " + c.number + ": " + c.name + " from "
+                    + copy.channelInfo.name + " with " + c.copyChannelOffset + " hour offset" + dateStr);
+            // Need to write out schedule for client-side (only today's is read)
+            if (c.schedule == null) {
+                Log.e(TAG, "Missing schedule definition for channel " + c.number);
+            } else if (today) {
+                FileUtils.publish(c.schedule, sched::writeJson);
+            }
+        } else {
+            // Load schedule and generate playlist
+            sched = Schedule.load(today ? c.schedule : c.getSchedule(date));
+            if (sched == null) {
+                failed.add(c.number);
+                return null;
+            }
+            pl = today ? loadDatedPlaylist(c, date) : null;
+            if (pl == null) {
                 ScheduleBuilder sb = new ScheduleBuilder(c, sched);
                 pl = sb.build();
-                Log.d(TAG, "Generated channel " + c.number + ": " + c.name);
-                double[] gaps = pl.getMaxGaps();
-                Log.d(TAG, "Min gap: " + gaps[0] + ", Max gap: " + gaps[1]);
-                sched.readEpisodes(pl);
             }
-            channels.put(c.number, new Channel(c, sched, pl));
+            Log.d(TAG, "Generated channel " + c.number + ": " + c.name + dateStr);
+            double[] gaps = pl.getMaxGaps();
+            Log.d(TAG, "Min gap: " + gaps[0] + ", Max gap: " + gaps[1]);
+            sched.readEpisodes(pl);
+        }
 
-            // Write out JSON file
-            FileUtils.writeToFile(Config.getFile("CHANNEL_PLAYLISTS_DIR", c.playlist),
-                    pl.toJsonString());
+        // Write out JSON file
+        if (!publishPlaylist(c, pl, date, today))
+            failed.add(c.number);
+        Metrics.time("channel", start);
+        Metrics.count("segments", pl.size());
 
-            // Generate schedule PDF
-            ScheduleForm form = new ScheduleForm(c, pl, sched, colors);
-            try {
-                form.generate();
-            } catch (IOException e) {
-                Log.e(TAG, "Failed to generate form for channel " + c.number, e);
+        // Generate schedule PDF
+        if (forms != null)
+            forms.submit(new ScheduleForm(c, pl, sched, colors, date));
+        return new Channel(c, sched, pl);
+    }
+
+    /**
+     * Load the playlist generated on an earlier run for a day ("GEN_DAYS")
+     * It isn't used if the channel's schedules were modified after it was written
+     * @param c Channel info
+     * @param date Date the playlist airs on
+     * @return Dated playlist or null if it needs to be generated
+     */
+    private static Playlist loadDatedPlaylist(ChannelInfo c, Date date) {
+        File file = Config.getFile("CHANNEL_PLAYLISTS_DIR", ChannelInfo.getDatedName(c.playlist, date));
+        if (!file.isFile())
+            return null;
+        for (File f : c.getScheduleFiles(date)) {
+            if (f.lastModified() > file.lastModified()) {
+                Log.d(TAG, "Schedule " + f.getName() + " changed since " + file.getName() + " was generated");
+                return null;
             }
         }
+        Playlist pl = Playlist.load(file);
+        if (pl == null)
+            Log.w(TAG, "Failed to load " + file + ", generating channel " + c.number + " instead");
+        else
+            Log.d(TAG, "Using " + file.getName() + " for channel " + c.number);
+        return pl;
+    }
+
+    /**
+     * Delete the dated playlists for a day and the days before it
+     * By then they've been used for today's playlists or are out of date
+     * @param cInfos Channel info list
+     * @param date Last day to delete
+     */
+    private static void deleteDatedPlaylists(ChannelInfo[] cInfos, Date date) {
+        File[] files = Config.getFile("CHANNEL_PLAYLISTS_DIR").listFiles();
+        if (files == null)
+            return;
+        int last = getDayKey(date);
+        for (ChannelInfo c : cInfos) {
+            if (c.playlist == null)
+                continue;
+            for (File f : files) {
+                Date fileDate = ChannelInfo.parseDatedName(c.playlist, f.getName());
+                if (fileDate == null || getDayKey(fileDate) > last)
+                    continue;
+                if (f.delete())
+                    Log.d(TAG, "Deleted old playlist " + f.getName());
+                else
+                    Log.e(TAG, "Failed to delete old playlist " + f);
+            }
+        }
+    }
+
+    /**
+     * Get the key used to seed the random numbers for a day
+     * @param date Date
+     * @return Date as yyyyMMdd
+     */
+    private static int getDayKey(Date date) {
+        return Integer.parseInt(new SimpleDateFormat("yyyyMMdd").format(date));
+    }
+
+    /**
+     * Copy a playlist with a time offset
+     * Segments are copied too since other channels may be copying the same source
+     * @param source Playlist to copy
+     * @param offsetMins Time offset in minutes
+     * @return Shifted copy
+     */
+    private static Playlist shiftPlaylist(Playlist source, int offsetMins) {
+        Playlist pl = new Playlist();
+        for (Segment s : source)
+            pl.add(new Segment(s));
+        pl.timeShift(offsetMins);
+        return pl;
+    }
+
+    /**
+     * Rebuild the rest of today's playlists (i.e. after a schedule change)
+     * Everything up to the end of the slot airing "REBUILD_MARGIN" seconds from now stays the same,
+     * so the player can switch over to the new playlist at any time
+     * @param numbers Channel numbers to rebuild (empty = all channels)
+     *                Channels that copy from these channels are rebuilt too
+     */
+    public static void rebuildChannels(List<Integer> numbers) {
+        ChannelInfo[] cInfos = ChannelInfo.parseChannelList(Config.getFile("CHANNEL_INFO"));
+        LogoColors colors = LogoColors.load(Config.getFile("LOGO_COLORS"));
+        rebuildChannels(cInfos, colors, numbers);
+        ShowCache.save();
+    }
+
+    /**
+     * Rebuild the rest of today's playlists
+     * @param cInfos Channel info list (in the order defined by channels.js)
+     * @param colors Logo colors for the schedule forms
+     * @param numbers Channel numbers to rebuild (empty = all channels)
+     */
+    public static void rebuildChannels(ChannelInfo[] cInfos, LogoColors colors, Collection<Integer> numbers) {
+        Calendar cal = Calendar.getInstance();
+        double cutoff = cal.get(Calendar.HOUR_OF_DAY) * 3600 + cal.get(Calendar.MINUTE) * 60
+                + cal.get(Calendar.SECOND) + Config.getInt("REBUILD_MARGIN", 120);
+
+        FormRenderer forms = new FormRenderer();
+        Set<Integer> selected = new HashSet<>(numbers);
+        Map<Integer, ChannelInfo> infos = new HashMap<>();
+        Map<Integer, Channel> channels = new HashMap<>();
+        for (ChannelInfo c : cInfos) {
+            infos.put(c.number, c);
+            if (!numbers.isEmpty()) {
+                if (!selected.contains(c.number) && !selected.contains(c.copyChannel))
+                    continue;
+                selected.add(c.number);
+            }
+
+            // Copy from the rebuilt channel, or the current one if it wasn't rebuilt
+            Channel source = channels.get(c.copyChannel);
+            if (source == null && infos.containsKey(c.copyChannel))
+                source = loadChannel(infos.get(c.copyChannel));
+
+            long start = System.nanoTime();
+            Channel chan = rebuildChannel(c, source, cutoff);
+            if (chan == null)
+                continue;
+            Metrics.time("rebuild", start);
+            Log.d(TAG, String.format("Rebuilt channel %d: %s in %.1f ms", c.number, c.name,
+                    (System.nanoTime() - start) / 1e6));
+            channels.put(c.number, chan);
+
+            // The playlist is already published, so this doesn't hold up the switch
+            forms.submit(new ScheduleForm(c, chan.playlist, chan.schedule, colors));
+        }
+        Metrics.clearChannel();
+        forms.finish();
+        exportMetrics();
+    }
+
+    /**
+     * Rebuild the rest of today's playlist for a single channel
+     * @param c Channel info
+     * @param copy The channel this channel copies from (null if N/A)
+     * @param cutoff Time relative to midnight (seconds) before which nothing may change
+     * @return Rebuilt channel or null if there was nothing to rebuild
+     */
+    private static Channel rebuildChannel(ChannelInfo c, Channel copy, double cutoff) {
+        // Channels playing a single show don't have any slots to rebuild
+        if (c.schedule == null || c.schedule.isDirectory())
+            return null;
+        File file = Config.getFile("CHANNEL_PLAYLISTS_DIR", c.playlist);
+        Playlist current = Playlist.load(file);
+        if (current == null) {
+            Log.e(TAG, "Failed to load current playlist for channel " + c.number);
+            return null;
+        }
+
+        Schedule sched;
+        Playlist pl;
+        RandUtils.seed(c.number, getDayKey(new Date()));
+        Metrics.setChannel(c.number);
+        if (copy != null) {
+            int offsetMins = c.copyChannelOffset * 60;
+            sched = Schedule.copy(copy.schedule, offsetMins);
+            int first = sched.findNextSlot(cutoff / 60);
+            if (first == -1) {
+                Log.d(TAG, "Nothing left to rebuild for channel " + c.number);
+                return null;
+            }
+            pl = new Playlist(current);
+            pl.splice(shiftPlaylist(copy.playlist, offsetMins), sched.get(first).TimeSlot * 60d);
+            sched.readEpisodes(pl);
+            FileUtils.publish(c.schedule, sched::writeJson);
+        } else {
+            sched = Schedule.load(c.schedule);
+            if (sched == null)
+                return null;
+            pl = new ScheduleBuilder(c, sched).rebuild(current, cutoff);
+            if (pl == null) {
+                Log.d(TAG, "Nothing left to rebuild for channel " + c.number);
+                return null;
+            }
+            sched.readEpisodes(pl);
+        }
+        publishPlaylist(c, pl, new Date(), true);
+        return new Channel(c, sched, pl);
+    }
+
+    /**
+     * Load the current playlist and schedule of a channel
+     * @param c Channel info
+     * @return Channel or null if the channel doesn't have a schedule or playlist
+     */
+    private static Channel loadChannel(ChannelInfo c) {
+        if (c.schedule == null || c.schedule.isDirectory())
+            return null;
+        Schedule sched = Schedule.load(c.schedule);
+        Playlist pl = Playlist.load(Config.getFile("CHANNEL_PLAYLISTS_DIR", c.playlist));
+        return sched != null && pl != null ? new Channel(c, sched, pl) : null;
+    }
+
+    /**
+     * Write out a channel playlist (and its binary version if "BINARY_PLAYLISTS" is enabled)
+     * @param c Channel info
+     * @param pl Playlist
+     * @param date Date the playlist airs on
+     * @param today True to write the playlist read by the player, false to write a dated playlist
+     *              (i.e. "schedule_chan_1 [06-11-2018].js")
+     * @return True if written successfully
+     */
+    private static boolean publishPlaylist(ChannelInfo c, Playlist pl, Date date, boolean today) {
+        long start = System.nanoTime();
+        String fileName = today ? c.playlist : ChannelInfo.getDatedName(c.playlist, date);
+        File file = Config.getFile("CHANNEL_PLAYLISTS_DIR", fileName);
+        boolean ret = FileUtils.publish(file, pl::writeJson);
+        if (Boolean.parseBoolean(Config.get("BINARY_PLAYLISTS"))) {
+            String name = fileName.endsWith(".js") ? fileName.substring(0, fileName.length() - 3)
+                    : fileName;
+            ret &= FileUtils.publishStream(Config.getFile("CHANNEL_PLAYLISTS_DIR", name + ".btvp"), pl::writeBinary);
+        }
+        Metrics.time("serialize", start);
+        return ret;
     }
 
     private static void showGUI() {
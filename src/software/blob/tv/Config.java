@@ -56,6 +56,42 @@ public class Config {
         return _data.get(key);
     }
 
+    /**
+     * Get an integer value
+     * @param key Config key
+     * @param defValue Value to return if the key is missing or malformed
+     * @return Integer value
+     */
+    public static int getInt(String key, int defValue) {
+        String value = get(key);
+        if (value == null)
+            return defValue;
+        try {
+            return Integer.parseInt(value.trim());
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid integer for " + key + ": " + value);
+        }
+        return defValue;
+    }
+
+    /**
+     * Get a decimal value
+     * @param key Config key
+     * @param defValue Value to return if the key is missing or malformed
+     * @return Decimal value
+     */
+    public static double getDouble(String key, double defValue) {
+        String value = get(key);
+        if (value == null)
+            return defValue;
+        try {
+            return Double.parseDouble(value.trim());
+        } catch (NumberFormatException e) {
+            Log.e(TAG, "Invalid number for " + key + ": " + value);
+        }
+        return defValue;
+    }
+
     public static File getFile(String key) {
         return new File(get(key));
     }
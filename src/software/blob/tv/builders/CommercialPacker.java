@@ -0,0 +1,182 @@
+package software.blob.tv.builders;
+
+import software.blob.tv.Config;
+import software.blob.tv.obj.CommercialIndex;
+import software.blob.tv.obj.Segment;
+import software.blob.tv.util.Log;
+import software.blob.tv.util.RandUtils;
+
+import java.util.*;
+
+/**
+ * Picks a set of commercials to fill the dead air in a time slot
+ *
+ * Random commercials are picked until the remaining dead air is small enough to search
+ * ("COMM_PACK_SECS"), then the rest is packed as tightly as possible using a subset-sum search
+ * over the durations (rounded up to {@link #QUANTUM}) where only one commercial may be picked from
+ * each family (see {@link CommercialIndex}). If the search runs out of time ("COMM_PACK_MS")
+ * the random picks continue until nothing else fits.
+ */
+public class CommercialPacker {
+
+    private static final String TAG = "CommercialPacker";
+
+    // Duration precision used by the search (seconds)
+    private static final double QUANTUM = 0.1;
+
+    private final CommercialIndex _index;
+    private final BitSet _pool;
+    private final double _tolerance, _packSecs;
+    private final long _budgetNanos;
+
+    /**
+     * Create a packer
+     * @param index Commercials to pick from
+     */
+    public CommercialPacker(CommercialIndex index) {
+        _index = index;
+        _pool = new BitSet(index.size());
+        _pool.set(0, index.size());
+        _tolerance = Config.getDouble("COMM_TOLERANCE", 1);
+        _packSecs = Config.getDouble("COMM_PACK_SECS", 240);
+        _budgetNanos = Config.getInt("COMM_PACK_MS", 50) * 1000000L;
+    }
+
+    /**
+     * Pick commercials to fill a given amount of dead air
+     * A packer should only be used once
+     * @param deadAir Dead air in seconds
+     * @return Commercials in random order
+     */
+    public List<Segment> pack(double deadAir) {
+        List<Segment> ret = new ArrayList<>();
+        double remTime = deadAir;
+
+        // Random picks until the rest can be searched
+        while (remTime > _packSecs) {
+            int commercial = getRandomCommercial(remTime);
+            if (commercial == -1)
+                break;
+            remTime -= take(commercial, ret);
+        }
+
+        // Pack the rest as tightly as possible
+        if (remTime > _tolerance) {
+            List<Integer> packed = search(remTime);
+            if (packed != null) {
+                for (int commercial : packed)
+                    remTime -= take(commercial, ret);
+            }
+        }
+
+        // Fill in whatever is left (if the search timed out)
+        while (remTime > 0) {
+            int commercial = getRandomCommercial(remTime);
+            if (commercial == -1)
+                break;
+            remTime -= take(commercial, ret);
+        }
+
+        if (remTime > _tolerance && !ret.isEmpty())
+            Log.d(TAG, String.format("Left %.2f seconds of dead air", remTime));
+
+        RandUtils.shuffle(ret);
+        return ret;
+    }
+
+    /**
+     * Get a random commercial from the pool that's equal to or under a duration
+     * @param maxDuration Maximum duration in seconds
+     * @return Commercial index or -1 if none fit
+     */
+    private int getRandomCommercial(double maxDuration) {
+        int limit = _index.countUnder(maxDuration);
+        int count = _pool.get(0, limit).cardinality();
+        if (count == 0)
+            return -1;
+        int i = _pool.nextSetBit(0);
+        for (int n = RandUtils.rand(count); n > 0; n--)
+            i = _pool.nextSetBit(i + 1);
+        return i;
+    }
+
+    /**
+     * Add a commercial to the picked list and drop it (and any duplicates) from the pool
+     * @param commercial Commercial index
+     * @param picked Picked commercials
+     * @return Duration of the commercial
+     */
+    private double take(int commercial, List<Segment> picked) {
+        _pool.andNot(_index.getExcludes(commercial));
+        picked.add(_index.get(commercial));
+        return _index.getDuration(commercial);
+    }
+
+    /**
+     * Find the set of commercials that comes closest to filling the remaining time without going over
+     * @param remTime Remaining time in seconds
+     * @return Commercial indices or null if the search ran out of time
+     */
+    private List<Integer> search(double remTime) {
+        long deadline = System.nanoTime() + _budgetNanos;
+        int capacity = (int) Math.floor(remTime / QUANTUM);
+
+        // Candidates in random order so ties are broken randomly
+        List<Integer> cands = new ArrayList<>();
+        int limit = _index.countUnder(remTime);
+        for (int i = _pool.nextSetBit(0); i >= 0 && i < limit; i = _pool.nextSetBit(i + 1)) {
+            if (_index.getDuration(i) > 0)
+                cands.add(i);
+        }
+        RandUtils.shuffle(cands);
+
+        // Rounding up guarantees the real total never exceeds the remaining time
+        int[] units = new int[cands.size()];
+        for (int i = 0; i < units.length; i++)
+            units[i] = (int) Math.ceil(_index.getDuration(cands.get(i)) / QUANTUM);
+
+        // For each reachable total, the candidate that first reached it (-1 = unreachable)
+        int[] reached = new int[capacity + 1];
+        Arrays.fill(reached, -1);
+        reached[0] = 0;
+        for (List<Integer> group : getGroups(cands)) {
+            if (System.nanoTime() > deadline) {
+                Log.w(TAG, "Ran out of time packing " + cands.size() + " commercials");
+                return null;
+            }
+            // Only totals reached before this group may be extended so one commercial is used per group
+            int[] before = reached.clone();
+            for (int i : group) {
+                for (int t = capacity; t >= units[i]; t--) {
+                    if (reached[t] == -1 && before[t - units[i]] != -1)
+                        reached[t] = i;
+                }
+            }
+            if (reached[capacity] != -1)
+                break;
+        }
+
+        int total = capacity;
+        while (total > 0 && reached[total] == -1)
+            total--;
+        List<Integer> ret = new ArrayList<>();
+        while (total > 0) {
+            int i = reached[total];
+            ret.add(cands.get(i));
+            total -= units[i];
+        }
+        return ret;
+    }
+
+    /**
+     * Group candidates by family
+     * @param cands Candidate commercials
+     * @return Candidate indices for each family
+     */
+    private Collection<List<Integer>> getGroups(List<Integer> cands) {
+        Map<Integer, List<Integer>> groups = new LinkedHashMap<>();
+        for (int i = 0; i < cands.size(); i++)
+            groups.computeIfAbsent(_index.getFamily(cands.get(i)), k -> new ArrayList<>()).add(i);
+        return groups.values();
+    }
+}
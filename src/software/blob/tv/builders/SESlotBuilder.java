@@ -42,15 +42,17 @@ public class SESlotBuilder extends SlotBuilder {
             for (Segment s : segSet) {
                 if (s == null) {
                     invalidSet = true;
-                    Log.w(TAG, "Episode set " + Arrays.toString(epSet)
-                            + " contains an invalid episode.");
+                    if (Log.isLoggable(Log.WARNING))
+                        Log.w(TAG, "Episode set " + Arrays.toString(epSet)
+                                + " contains an invalid episode.");
                 } else
                     totalTime += s.getDuration();
             }
             if(totalTime > _segs.getSlotSizeSecs()) {
                 invalidSet = true;
-                Log.w(TAG, "Episode set " + Arrays.toString(epSet)
-                        + " total duration is longer than " + _segs.getSlotSize() + " minutes. ");
+                if (Log.isLoggable(Log.WARNING))
+                    Log.w(TAG, "Episode set " + Arrays.toString(epSet)
+                            + " total duration is longer than " + _segs.getSlotSize() + " minutes. ");
             }
             if(++attempts == 10) {
                 segSet = new Segment[0];
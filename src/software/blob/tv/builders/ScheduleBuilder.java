@@ -3,6 +3,8 @@ package software.blob.tv.builders;
 import software.blob.tv.*;
 import software.blob.tv.obj.*;
 import software.blob.tv.util.Log;
+import software.blob.tv.util.Metrics;
+import software.blob.tv.util.RandUtils;
 
 import java.io.File;
 import java.io.FileFilter;
@@ -43,6 +45,36 @@ public class ScheduleBuilder {
     }
 
     public Playlist build() {
+        return build(0);
+    }
+
+    /**
+     * Rebuild the time slots that haven't started yet
+     * Slots that started before the cutoff (including the one airing at the cutoff) keep
+     * their current segments, so nothing that aired or is airing changes
+     * @param current Current playlist
+     * @param cutoff Time relative to midnight (seconds) before which nothing may change
+     * @return Rebuilt playlist or null if there are no slots left to rebuild
+     */
+    public Playlist rebuild(Playlist current, double cutoff) {
+        if (!_valid || _sched == null)
+            return null;
+        int first = _sched.findNextSlot(cutoff / 60);
+        if (first == -1)
+            return null;
+        Playlist later = build(first);
+        Playlist playlist = new Playlist(current);
+        // Slots that wrap past midnight are dropped since that part of the day already aired
+        playlist.splice(later, _sched.get(first).TimeSlot * 60d);
+        return playlist;
+    }
+
+    /**
+     * Build the playlist starting at a given time slot
+     * @param first Index of the first slot to build
+     * @return Playlist
+     */
+    private Playlist build(int first) {
         Playlist playlist = new Playlist();
         if(!_valid) {
             Log.e(TAG, "Builder is not valid. Returning empty playlist...");
@@ -52,7 +84,7 @@ public class ScheduleBuilder {
             Log.e(TAG, _channel.schedule + " is not a valid schedule file.");
             return playlist;
         }
-        for(int i = 0; i < _sched.size(); i++) {
+        for(int i = first; i < _sched.size(); i++) {
             int n = (i == _sched.size() - 1 ? 0 : i + 1);
             int startTime = _sched.get(i).TimeSlot;
             int endTime = _sched.get(n).TimeSlot + (n == 0 ? DAY_MINS : 0);
@@ -60,6 +92,8 @@ public class ScheduleBuilder {
                 Log.e(TAG, "Invalid slot between " + startTime + " and " + endTime);
                 return playlist;
             }
+            // Each slot gets its own random numbers so rebuilding a slot doesn't depend on the ones before it
+            RandUtils.reseed(startTime);
             Playlist pl = processSlot(_sched.get(i), endTime, findShow(_sched.get(i).Show));
             playlist.merge(pl, true);
 
@@ -112,6 +146,7 @@ public class ScheduleBuilder {
     }
 
     private Playlist processSlot(ScheduleSlot slot, int endMin, File showDir) {
+        long start = System.nanoTime();
         // Determine eligible segments
         Playlist segs = new Playlist(showDir);
         String[] epNames = null;
@@ -129,11 +164,15 @@ public class ScheduleBuilder {
         ShowInfo info = new ShowInfo(new File(showDir, Config.get("INFO_JS")));
 
         // Read in breaks
+        // Segments are shared with the show cache, so copy before modifying
         if (info.breaks != null) {
-            for (Segment s : segs) {
-                ShowInfo.Break br = info.breaks.get(s.name);
-                if (br != null)
+            for (int i = 0; i < segs.size(); i++) {
+                ShowInfo.Break br = info.breaks.get(segs.get(i).name);
+                if (br != null) {
+                    Segment s = new Segment(segs.get(i));
                     br.getMidBreaks(segs, s);
+                    segs.set(i, s);
+                }
             }
         }
 
@@ -152,6 +191,8 @@ public class ScheduleBuilder {
             Log.e(TAG, "Failed to generate playlist for time slot: " + slot.TimeSlot);
         }
         pl.timeShift(slot.TimeSlot);
+        Metrics.time("slot", start);
+        Metrics.count("slots");
         return pl;
     }
 
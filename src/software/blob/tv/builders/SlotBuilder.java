@@ -4,6 +4,7 @@ import software.blob.tv.filters.SegmentFilter;
 import software.blob.tv.filters.TextFilter;
 import software.blob.tv.obj.*;
 import software.blob.tv.util.Log;
+import software.blob.tv.util.Metrics;
 
 import java.io.File;
 import java.util.ArrayList;
@@ -103,6 +104,7 @@ public abstract class SlotBuilder {
         }
 
         // Add intro and credits if specified
+        long start = System.nanoTime();
         Segment intro = getIntroSeg();
         Segment credits = getCreditsSeg();
         if(intro != null && !skipIntro)
@@ -116,11 +118,17 @@ public abstract class SlotBuilder {
                 s.allowCrop = true;
         }
 
+        Metrics.time("slot_intro_credits", start);
+
         // Insert schedule bumper w/ appropriate upcoming and later show
-        if (_channel.bumps != null)
+        if (_channel.bumps != null) {
+            start = System.nanoTime();
             insertScheduleBumper(pl);
+            Metrics.time("slot_schedule_bumper", start);
+        }
 
         // Insert station id (if we can)
+        start = System.nanoTime();
         Segment stationId = _channel.stationIds.getRandomSegment(pl.getDeadAir());
         if(stationId != null)
             pl.add(0.0, stationId);
@@ -132,17 +140,26 @@ public abstract class SlotBuilder {
                 pl.add(pl.last().startTime, shortFilm, true);
         }
 
+        Metrics.time("slot_station_id", start);
+
         // Insert mid-break bumper (if they exist)
-        if (!skipBumper)
+        if (!skipBumper) {
+            start = System.nanoTime();
             insertBreakBumpers(pl);
+            Metrics.time("slot_break_bumpers", start);
+        }
 
         // Commercials (lowest priority)
+        start = System.nanoTime();
         insertCommercials(pl);
+        Metrics.time("slot_commercials", start);
 
         // Filter post-processing (such as text line wrapping)
         // XXX - Ideally this would be performed during serialization (via some "toJson" method override)
         // but we can't really do this with Gson's automatic serialization
+        start = System.nanoTime();
         postProcessFilters(pl);
+        Metrics.time("slot_filters", start);
     }
 
     /**
@@ -237,25 +254,14 @@ public abstract class SlotBuilder {
         if (numBreaks == 0)
             return;
 
-        // Get a bunch of random commercials
-        Playlist commList = new Playlist(_channel.commercials);
+        // Get a bunch of random commercials that fill the dead air
         List<Playlist> comms = new ArrayList<>(numBreaks);
         double deadAir = pl.getDeadAir();
         double remTime = deadAir;
         int i = 0;
-        while(remTime > 0) {
-
-            // Get and insert random commercial
-            Segment commercial = commList.getRandomSegment(remTime);
-            if(commercial == null)
-                break;
-
-            // Remove duplicates
-            for(int j = 0; j < commList.size(); j++) {
-                Segment c = commList.get(j);
-                if(commercial.compareName(c) >= 3)
-                    commList.remove(j--);
-            }
+        List<Segment> picked = _channel.commercialIndex != null ?
+                new CommercialPacker(_channel.commercialIndex).pack(deadAir) : new ArrayList<>();
+        for(Segment commercial : picked) {
 
             // Update remaining time
             remTime -= commercial.getDuration();
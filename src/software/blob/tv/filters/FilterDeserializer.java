@@ -44,11 +44,13 @@ public class FilterDeserializer {
     public static SegmentFilter getFilter(JsonObject obj) {
         try {
             // First we need the name to know what type of filter it is
-            if (!obj.has("name")) {
+            // Filters written out to playlists use "type" instead
+            String key = obj.has("name") ? "name" : "type";
+            if (!obj.has(key)) {
                 Log.e(TAG, "JSON filter metadata is missing name" + obj);
                 return null;
             }
-            String name = obj.get("name").getAsString();
+            String name = obj.get(key).getAsString();
 
             // Perform class lookup based on the name
             Class<? extends SegmentFilter> cl = filterByType.get(name);
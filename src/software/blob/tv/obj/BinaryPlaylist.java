@@ -0,0 +1,309 @@
+package software.blob.tv.obj;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonParser;
+import software.blob.tv.Config;
+import software.blob.tv.filters.FilterDeserializer;
+import software.blob.tv.util.FileUtils;
+import software.blob.tv.util.Log;
+import software.blob.tv.util.StringTable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Compact, memory-mapped alternative to the JSON playlist format
+ *
+ * Layout (big-endian):
+ * Header - magic, version, segment count and the offset of each section
+ * Segments - fixed-width segment records sorted by start time (strings are offsets into the string table)
+ * Filters - table of filter lists (same JSON as the "filters" field of the JSON format)
+ * Strings - paths (relative to BTV_HOME), shows and titles
+ * Both tables use the {@link StringTable} layout.
+ *
+ * Segment fields are read straight from the mapped file, so opening a playlist doesn't require
+ * parsing it. {@link #getSegment(int)} creates a full segment when needed.
+ */
+public class BinaryPlaylist {
+
+    private static final String TAG = "BinaryPlaylist";
+
+    private static final int MAGIC = 0x42545650; // "BTVP"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int SEG_SIZE = 72;
+    private static final int NONE = Integer.MIN_VALUE;
+
+    // Segment record field offsets
+    private static final int PATH = 0, SHOW = 4, TITLE = 8, FILTERS = 12, START = 16, END = 24,
+            STREAM_START = 32, START_TIME = 40, END_TIME = 48, EPISODE = 56, SEASON = 60, PART = 64,
+            FORMAT = 66, EP_TYPE = 67, ALLOW_CROP = 68;
+
+    private final File _file;
+    private final MappedByteBuffer _buf;
+    private final int _count, _segsPos, _filtersPos, _stringsPos;
+
+    private BinaryPlaylist(File file, MappedByteBuffer buf) throws IOException {
+        _file = file;
+        _buf = buf;
+        if (buf.capacity() < HEADER_SIZE || buf.getInt(0) != MAGIC)
+            throw new IOException("Not a binary playlist");
+        if (buf.getInt(4) != VERSION)
+            throw new IOException("Unsupported binary playlist version " + buf.getInt(4));
+        _count = buf.getInt(8);
+        _segsPos = (int) buf.getLong(16);
+        _filtersPos = (int) buf.getLong(24);
+        _stringsPos = (int) buf.getLong(32);
+    }
+
+    /**
+     * Memory-map a binary playlist
+     * @param file Binary playlist file
+     * @return Playlist or null if the file is missing or invalid
+     */
+    public static BinaryPlaylist open(File file) {
+        if (!FileUtils.readableFile(file, true))
+            return null;
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping remains valid after the channel is closed
+            return new BinaryPlaylist(file, fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size()));
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to open binary playlist " + file + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    /**
+     * Check if a file is a binary playlist
+     * @param file File
+     * @return True if the file starts with the binary playlist magic number
+     */
+    public static boolean isBinary(File file) {
+        try (DataInputStream dis = new DataInputStream(new FileInputStream(file))) {
+            return dis.readInt() == MAGIC;
+        } catch (IOException e) {
+            return false;
+        }
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    public int size() {
+        return _count;
+    }
+
+    private int segPos(int index) {
+        if (index < 0 || index >= _count)
+            throw new IndexOutOfBoundsException("Index: " + index + ", Size: " + _count);
+        return _segsPos + index * SEG_SIZE;
+    }
+
+    private String readString(int index, int field) {
+        return StringTable.read(_buf, _stringsPos, _buf.getInt(segPos(index) + field));
+    }
+
+    public String getPath(int index) {
+        return readString(index, PATH);
+    }
+
+    public String getShow(int index) {
+        return readString(index, SHOW);
+    }
+
+    public String getTitle(int index) {
+        return readString(index, TITLE);
+    }
+
+    /**
+     * Get the filters of a segment as JSON
+     * @param index Segment index
+     * @return JSON array of filters or null if the segment has none
+     */
+    public String getFiltersJson(int index) {
+        return StringTable.read(_buf, _filtersPos, _buf.getInt(segPos(index) + FILTERS));
+    }
+
+    public double getStart(int index) {
+        return _buf.getDouble(segPos(index) + START);
+    }
+
+    public double getEnd(int index) {
+        return _buf.getDouble(segPos(index) + END);
+    }
+
+    public double getStreamStart(int index) {
+        return _buf.getDouble(segPos(index) + STREAM_START);
+    }
+
+    public double getStartTime(int index) {
+        return _buf.getDouble(segPos(index) + START_TIME);
+    }
+
+    public double getEndTime(int index) {
+        return _buf.getDouble(segPos(index) + END_TIME);
+    }
+
+    public Segment.Format getFormat(int index) {
+        byte format = _buf.get(segPos(index) + FORMAT);
+        return format >= 0 ? Segment.Format.values()[format] : null;
+    }
+
+    /**
+     * Find the segment airing at a given time
+     * @param time Time relative to midnight (seconds)
+     * @return Index of the last segment starting at or before the time (-1 if none)
+     */
+    public int indexAt(double time) {
+        int lo = 0, hi = _count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getStartTime(mid) <= time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo - 1;
+    }
+
+    /**
+     * Read a full segment
+     * @param index Segment index
+     * @return Segment (with an absolute path, same as a generated segment)
+     */
+    public Segment getSegment(int index) {
+        int pos = segPos(index);
+        Segment s = new Segment();
+        s.path = getPath(index);
+        s.show = getShow(index);
+        s.title = getTitle(index);
+        s.start = getStart(index);
+        s.end = getEnd(index);
+        s.streamStart = getStreamStart(index);
+        s.startTime = getStartTime(index);
+        s.endTime = getEndTime(index);
+        s.format = getFormat(index);
+        byte epType = _buf.get(pos + EP_TYPE), allowCrop = _buf.get(pos + ALLOW_CROP);
+        s.epType = epType >= 0 ? Segment.EpisodeType.values()[epType] : null;
+        s.allowCrop = allowCrop >= 0 ? allowCrop == 1 : null;
+        char part = _buf.getChar(pos + PART);
+        s.part = part != Character.MAX_VALUE ? part : null;
+        int episode = _buf.getInt(pos + EPISODE), season = _buf.getInt(pos + SEASON);
+        s.episode = episode != NONE ? episode : null;
+        s.season = season != NONE ? season : null;
+        String filters = getFiltersJson(index);
+        if (filters != null)
+            s.filters = FilterDeserializer.getFilters(new JsonParser().parse(filters));
+        Playlist.restoreSegment(s, Config.get("BTV_HOME") + File.separator);
+        return s;
+    }
+
+    /**
+     * Read every segment
+     * @return Playlist
+     */
+    public Playlist toPlaylist() {
+        Playlist pl = new Playlist();
+        pl.ensureCapacity(_count);
+        for (int i = 0; i < _count; i++)
+            pl.add(getSegment(i));
+        return pl;
+    }
+
+    /**
+     * Write a playlist in the binary format
+     * @param pl Playlist
+     * @param os Output stream
+     * @throws IOException Failed to write
+     */
+    public static void write(Playlist pl, OutputStream os) throws IOException {
+        String homeDir = Config.get("BTV_HOME") + File.separator;
+        Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+
+        // Records are sorted by start time so the player can binary search them
+        List<Segment> segs = new ArrayList<>(pl);
+        segs.sort(Comparator.comparingDouble(s -> s.startTime));
+
+        // Tables go last, but their offsets are needed by the records
+        StringTable strings = new StringTable(), filters = new StringTable();
+        int[][] offsets = new int[segs.size()][];
+        for (int i = 0; i < segs.size(); i++) {
+            Segment s = segs.get(i);
+            offsets[i] = new int[] {
+                    strings.add(Playlist.relativePath(s.path, homeDir)),
+                    strings.add(s.show),
+                    strings.add(s.title),
+                    filters.add(s.filters != null ? gson.toJson(s.filters) : null)
+            };
+        }
+
+        long segsPos = HEADER_SIZE;
+        long filtersPos = segsPos + (long) segs.size() * SEG_SIZE;
+        long stringsPos = filtersPos + filters.size();
+        long end = stringsPos + strings.size();
+        if (end > Integer.MAX_VALUE)
+            throw new IOException("Playlist is too large to map");
+
+        DataOutputStream dos = new DataOutputStream(os);
+        dos.writeInt(MAGIC);
+        dos.writeInt(VERSION);
+        dos.writeInt(segs.size());
+        dos.writeInt(0);
+        dos.writeLong(segsPos);
+        dos.writeLong(filtersPos);
+        dos.writeLong(stringsPos);
+        dos.writeLong(end);
+        dos.write(new byte[HEADER_SIZE - dos.size()]);
+
+        for (int i = 0; i < segs.size(); i++) {
+            Segment s = segs.get(i);
+            for (int offset : offsets[i])
+                dos.writeInt(offset);
+            dos.writeDouble(s.start);
+            dos.writeDouble(s.end);
+            dos.writeDouble(s.streamStart);
+            dos.writeDouble(s.startTime);
+            dos.writeDouble(s.endTime);
+            dos.writeInt(s.episode != null ? s.episode : NONE);
+            dos.writeInt(s.season != null ? s.season : NONE);
+            dos.writeChar(s.part != null ? s.part : Character.MAX_VALUE);
+            dos.writeByte(s.format != null ? s.format.ordinal() : -1);
+            dos.writeByte(s.epType != null ? s.epType.ordinal() : -1);
+            dos.writeByte(s.allowCrop != null ? (s.allowCrop ? 1 : 0) : -1);
+            dos.write(new byte[SEG_SIZE - ALLOW_CROP - 1]);
+        }
+
+        filters.writeTo(dos);
+        strings.writeTo(dos);
+        dos.flush();
+    }
+
+    /**
+     * Convert a playlist file between the JSON and binary formats
+     * The input format is detected automatically
+     * @param input JSON or binary playlist
+     * @param output Converted playlist
+     * @return True if converted successfully
+     */
+    public static boolean convert(File input, File output) {
+        if (isBinary(input)) {
+            BinaryPlaylist bp = open(input);
+            if (bp == null)
+                return false;
+            Playlist pl = bp.toPlaylist();
+            return FileUtils.publish(output, pl::writeJson);
+        }
+        Playlist pl = Playlist.load(input);
+        if (pl == null)
+            return false;
+        return FileUtils.publishStream(output, pl::writeBinary);
+    }
+}
@@ -6,10 +6,13 @@ import com.google.gson.JsonObject;
 import software.blob.tv.builders.ScheduleBuilder;
 import software.blob.tv.util.FileUtils;
 import software.blob.tv.util.Log;
+import software.blob.tv.util.Metrics;
 
 import java.io.File;
+import java.text.ParseException;
 import java.text.SimpleDateFormat;
 import java.util.ArrayList;
+import java.util.Date;
 import java.util.List;
 
 /**
@@ -22,8 +25,13 @@ public class ChannelInfo {
     public int number, copyChannel = -1, copyChannelOffset = 0;
     public File schedule;
     public Playlist shorts, bumps, commercials, stationIds;
+    public CommercialIndex commercialIndex;
     public String name, playlist;
 
+    // Base schedule file (checked for custom schedules on a given date)
+    private File _schedDir;
+    private String _schedName;
+
     public ChannelInfo(File dir, JsonObject jo) {
         if (jo.has("CopyChannel"))
             copyChannel = jo.get("CopyChannel").getAsInt();
@@ -32,14 +40,9 @@ public class ChannelInfo {
         if (jo.has("Schedule")) {
             String schedName = jo.get("Schedule").getAsString();
             if (schedName.endsWith(".js")) {
-                // Check for today's custom schedule
-                String date = (new SimpleDateFormat("[MM-dd-yyyy]"))
-                        .format(System.currentTimeMillis());
-                schedule = new File(dir, schedName.replace(".js", " " + date + ".js"));
-                if (!schedule.exists())
-                    schedule = new File(dir, schedName);
-                else
-                    Log.d(TAG, "Using custom schedule for " + date);
+                _schedDir = dir;
+                _schedName = schedName;
+                updateSchedule(new Date());
             } else {
                 File showDir = ScheduleBuilder.findShow(schedName);
                 if (showDir.exists() && showDir.isDirectory()) {
@@ -70,8 +73,10 @@ public class ChannelInfo {
             bumps = loadDirectory(jo.get("Bumpers"));
 
         // Commercials
-        if (jo.has("Commercials"))
+        if (jo.has("Commercials")) {
             commercials = loadDirectory(jo.get("Commercials"));
+            commercialIndex = new CommercialIndex(commercials);
+        }
 
         // Station IDs
         if (jo.has("IDs"))
@@ -80,12 +85,87 @@ public class ChannelInfo {
         // Everything else is client-side for now
     }
 
+    /**
+     * Get the schedule for a given date
+     * @param date Date
+     * @return The custom schedule for the date if it exists, otherwise the regular schedule
+     */
+    public File getSchedule(Date date) {
+        if (_schedName == null)
+            return schedule;
+        File custom = new File(_schedDir, getDatedName(_schedName, date));
+        if (custom.exists()) {
+            Log.d(TAG, "Using custom schedule for " + formatDate(date));
+            return custom;
+        }
+        return new File(_schedDir, _schedName);
+    }
+
+    /**
+     * Switch to the schedule for a given date (i.e. at midnight)
+     * @param date Date
+     */
+    public void updateSchedule(Date date) {
+        schedule = getSchedule(date);
+    }
+
+    /**
+     * Get the schedule files that may be used on a given date
+     * @param date Date
+     * @return The regular and custom schedule files (the custom schedule may not exist),
+     * or an empty list if the channel doesn't use a schedule file
+     */
+    public List<File> getScheduleFiles(Date date) {
+        List<File> ret = new ArrayList<>();
+        if (_schedName != null) {
+            ret.add(new File(_schedDir, _schedName));
+            ret.add(new File(_schedDir, getDatedName(_schedName, date)));
+        }
+        return ret;
+    }
+
+    /**
+     * Get the name of a schedule or playlist file for a specific date
+     * @param fileName File name (i.e. "schedule_chan_1.js")
+     * @param date Date
+     * @return Dated file name (i.e. "schedule_chan_1 [06-11-2018].js")
+     */
+    public static String getDatedName(String fileName, Date date) {
+        String suffix = formatDate(date);
+        if (fileName.endsWith(".js"))
+            return fileName.substring(0, fileName.length() - 3) + " " + suffix + ".js";
+        return fileName + " " + suffix;
+    }
+
+    /**
+     * Get the date of a file written by {@link #getDatedName(String, Date)}
+     * @param fileName File name (i.e. "schedule_chan_1.js")
+     * @param datedName Dated file name with any extension (i.e. "schedule_chan_1 [06-11-2018].btvp")
+     * @return Date or null if the file isn't a dated version of the file name
+     */
+    public static Date parseDatedName(String fileName, String datedName) {
+        String base = fileName.endsWith(".js") ? fileName.substring(0, fileName.length() - 3) : fileName;
+        int end = datedName.lastIndexOf(']');
+        if (!datedName.startsWith(base + " [") || end == -1)
+            return null;
+        try {
+            return new SimpleDateFormat("[MM-dd-yyyy]").parse(datedName.substring(base.length() + 1, end + 1));
+        } catch (ParseException e) {
+            return null;
+        }
+    }
+
+    private static String formatDate(Date date) {
+        return new SimpleDateFormat("[MM-dd-yyyy]").format(date);
+    }
+
     /**
      * Load a single or array of directory names into playlists
      * @param dirEl Directory JSON element (a string or array of strings)
      * @return A single playlist containing all the segments
      */
     private static Playlist loadDirectory(JsonElement dirEl) {
+        long start = System.nanoTime();
         Playlist ret;
         if (dirEl instanceof JsonArray) {
             ret = new Playlist();
@@ -95,6 +175,7 @@ public class ChannelInfo {
         } else
             ret = new Playlist(dirEl.getAsString());
         ret.sortByDuration();
+        Metrics.time("channel_directory", start);
         return ret;
     }
 
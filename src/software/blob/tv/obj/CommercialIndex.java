@@ -0,0 +1,222 @@
+package software.blob.tv.obj;
+
+import java.util.*;
+
+/**
+ * Pre-computed index of a commercial pool
+ *
+ * Commercials are indexed in duration order. For each commercial this stores the set of commercials
+ * that shouldn't air in the same break ({@link Segment#compareName(Segment)} >= 3) and the family
+ * (advertiser) it belongs to, which is every commercial connected to it through those name matches.
+ *
+ * Names are looked up using a sorted name table, where every prefix (trie node) covers a contiguous
+ * range of names, so building the index doesn't require comparing every pair of commercials.
+ */
+public class CommercialIndex {
+
+    private static final String TAG = "CommercialIndex";
+
+    // Minimum value of compareName for two commercials to be considered duplicates
+    private static final int MIN_MATCH = 3;
+
+    private final Playlist _segs;
+    private final double[] _durations;
+    private final BitSet[] _excludes;
+    private final int[] _families;
+    private final Map<Segment, Integer> _indices = new IdentityHashMap<>();
+    private int _familyCount;
+
+    // Indices of named commercials sorted by name
+    private final int[] _byName;
+    private final String[] _names;
+
+    /**
+     * Index a pool of commercials
+     * @param commercials Commercials (not modified)
+     */
+    public CommercialIndex(Playlist commercials) {
+        _segs = new Playlist(commercials);
+        _segs.sortByDuration();
+        int size = _segs.size();
+        _durations = new double[size];
+        for (int i = 0; i < size; i++) {
+            Segment s = _segs.get(i);
+            _durations[i] = s.getDuration();
+            _indices.put(s, i);
+        }
+
+        List<Integer> named = new ArrayList<>();
+        for (int i = 0; i < size; i++) {
+            if (_segs.get(i).name != null)
+                named.add(i);
+        }
+        named.sort(Comparator.comparing(i -> _segs.get(i).name));
+        _byName = new int[named.size()];
+        _names = new String[named.size()];
+        for (int n = 0; n < _byName.length; n++) {
+            _byName[n] = named.get(n);
+            _names[n] = _segs.get(_byName[n]).name;
+        }
+
+        _excludes = new BitSet[size];
+        for (int i = 0; i < size; i++)
+            _excludes[i] = findExcludes(_segs.get(i).name);
+
+        _families = new int[size];
+        findFamilies();
+    }
+
+    /**
+     * Find the commercials that match a name
+     *
+     * compareName returns the length of the shorter name if one name starts with the other, otherwise
+     * the position of the last space before the names differ. So a name matches:
+     * - every name starting with its first space at or after {@link #MIN_MATCH} (or the whole name if
+     *   it has no such space and is long enough)
+     * - every name of at least {@link #MIN_MATCH} characters it starts with
+     * @param name Commercial name
+     * @return Matching commercials (by index)
+     */
+    private BitSet findExcludes(String name) {
+        BitSet ret = new BitSet(_segs.size());
+        if (name == null)
+            return ret;
+
+        int space = name.indexOf(' ', MIN_MATCH);
+        String prefix = space != -1 ? name.substring(0, space + 1) : name;
+        if (prefix.length() >= MIN_MATCH) {
+            for (int n = findName(prefix, false); n < findName(prefix, true); n++)
+                ret.set(_byName[n]);
+        }
+
+        // Shorter names this one starts with
+        for (int len = MIN_MATCH; len < prefix.length(); len++) {
+            String shorter = name.substring(0, len);
+            for (int n = findName(shorter, false); n < _names.length && _names[n].equals(shorter); n++)
+                ret.set(_byName[n]);
+        }
+        return ret;
+    }
+
+    /**
+     * Binary search the sorted names
+     * @param prefix Name prefix
+     * @param end True to find the end of the names starting with the prefix, false to find the start
+     * @return Index into the sorted names
+     */
+    private int findName(String prefix, boolean end) {
+        int lo = 0, hi = _names.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            String name = _names[mid];
+            if (name.compareTo(prefix) < 0 || end && name.startsWith(prefix))
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Assign each commercial to a family (connected matches)
+     */
+    private void findFamilies() {
+        int[] parent = new int[_segs.size()];
+        for (int i = 0; i < parent.length; i++)
+            parent[i] = i;
+        for (int i = 0; i < parent.length; i++) {
+            for (int j = _excludes[i].nextSetBit(0); j >= 0; j = _excludes[i].nextSetBit(j + 1))
+                parent[root(parent, j)] = root(parent, i);
+        }
+        Map<Integer, Integer> ids = new HashMap<>();
+        for (int i = 0; i < parent.length; i++) {
+            Integer id = ids.get(root(parent, i));
+            if (id == null)
+                ids.put(root(parent, i), id = ids.size());
+            _families[i] = id;
+        }
+        _familyCount = ids.size();
+    }
+
+    private static int root(int[] parent, int i) {
+        while (parent[i] != i)
+            i = parent[i] = parent[parent[i]];
+        return i;
+    }
+
+    public int size() {
+        return _segs.size();
+    }
+
+    /**
+     * Get a commercial
+     * @param index Index (commercials are sorted by duration)
+     * @return Commercial
+     */
+    public Segment get(int index) {
+        return _segs.get(index);
+    }
+
+    public double getDuration(int index) {
+        return _durations[index];
+    }
+
+    /**
+     * Get the index of a commercial in this pool
+     * @param s Commercial
+     * @return Index or -1 if not indexed
+     */
+    public int indexOf(Segment s) {
+        Integer index = _indices.get(s);
+        return index != null ? index : -1;
+    }
+
+    /**
+     * Count the commercials that are equal to or under a duration
+     * @param maxDuration Maximum duration in seconds
+     * @return Number of commercials (they're the first ones in the index)
+     */
+    public int countUnder(double maxDuration) {
+        int lo = 0, hi = _durations.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_durations[mid] <= maxDuration)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Get the commercials that shouldn't air alongside a commercial
+     * @param index Commercial index
+     * @return Matching commercials (must not be modified)
+     */
+    public BitSet getExcludes(int index) {
+        return _excludes[index];
+    }
+
+    /**
+     * Get the family of a commercial
+     * @param index Commercial index
+     * @return Family ID (0 to {@link #getFamilyCount()} - 1)
+     */
+    public int getFamily(int index) {
+        return _families[index];
+    }
+
+    /**
+     * Get the family of a commercial
+     * @param s Commercial
+     * @return Family ID or -1 if the commercial isn't indexed
+     */
+    public int getFamily(Segment s) {
+        int index = indexOf(s);
+        return index != -1 ? _families[index] : -1;
+    }
+
+    public int getFamilyCount() {
+        return _familyCount;
+    }
+}
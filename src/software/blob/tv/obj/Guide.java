@@ -0,0 +1,175 @@
+package software.blob.tv.obj;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import software.blob.tv.Config;
+import software.blob.tv.util.MathUtils;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+
+/**
+ * Answers "what's airing on a channel at a given time and what's up next"
+ *
+ * Segment start times are binary searched (along with the schedule slots), so lookups are cheap
+ * enough for info banners and guides that poll every channel. Segments that wrap past midnight
+ * (i.e. the last segment of a copy channel) also cover the start of the day.
+ */
+public class Guide {
+
+    private static final String TAG = "Guide";
+
+    /**
+     * Result of a lookup
+     */
+    public static class NowPlaying {
+        // Time of the lookup relative to midnight (seconds)
+        public final double time;
+
+        // Segment airing at the time (null during dead air)
+        public final Segment current;
+
+        // Time since the current segment started and until it ends (seconds)
+        public final double offset, remaining;
+
+        // Schedule slot airing at the time (null if unknown)
+        public final ScheduleSlot slot;
+
+        // Segments airing after the current one (or after the dead air)
+        public final List<Segment> next;
+
+        NowPlaying(double time, Segment current, ScheduleSlot slot, List<Segment> next) {
+            this.time = time;
+            this.current = current;
+            this.slot = slot;
+            this.next = next;
+            if (current != null) {
+                this.offset = MathUtils.modRange(time - current.startTime, Playlist.MAX_SECS);
+                this.remaining = MathUtils.modRange(current.endTime - time, Playlist.MAX_SECS);
+            } else
+                this.offset = this.remaining = 0;
+        }
+
+        /**
+         * Convert to JSON (segments use the same fields as the playlist files)
+         * @return JSON object
+         */
+        public JsonObject toJson() {
+            String homeDir = Config.get("BTV_HOME") + File.separator;
+            Gson gson = new GsonBuilder().disableHtmlEscaping().create();
+            JsonObject jo = new JsonObject();
+            jo.addProperty("time", time);
+            if (current != null) {
+                JsonObject cur = toJson(gson, current, homeDir);
+                cur.addProperty("offset", offset);
+                cur.addProperty("remaining", remaining);
+                jo.add("current", cur);
+            }
+            if (slot != null) {
+                JsonObject ss = new JsonObject();
+                ss.addProperty("TimeSlot", slot.TimeSlot);
+                ss.addProperty("Show", slot.Show);
+                jo.add("slot", ss);
+            }
+            JsonArray arr = new JsonArray();
+            for (Segment s : next)
+                arr.add(toJson(gson, s, homeDir));
+            jo.add("next", arr);
+            return jo;
+        }
+
+        private static JsonObject toJson(Gson gson, Segment s, String homeDir) {
+            JsonObject jo = gson.toJsonTree(s).getAsJsonObject();
+            if (s.path != null)
+                jo.addProperty("path", Playlist.relativePath(s.path, homeDir));
+            return jo;
+        }
+    }
+
+    private final Segment[] _segs;
+    private final double[] _starts;
+    private final Schedule _schedule;
+
+    /**
+     * Index a channel's playlist
+     * @param playlist Playlist (not modified)
+     * @param schedule Schedule the playlist was generated from (null if N/A)
+     */
+    public Guide(Playlist playlist, Schedule schedule) {
+        List<Segment> segs = new ArrayList<>(playlist);
+        segs.sort(Comparator.comparingDouble(s -> s.startTime));
+        _segs = segs.toArray(new Segment[0]);
+        _starts = new double[_segs.length];
+        for (int i = 0; i < _segs.length; i++)
+            _starts[i] = _segs[i].startTime;
+        _schedule = schedule;
+    }
+
+    public int size() {
+        return _segs.length;
+    }
+
+    /**
+     * Find the segment airing at a given time
+     * @param time Time relative to midnight (seconds)
+     * @return Segment index or -1 during dead air
+     */
+    public int indexAt(double time) {
+        if (_segs.length == 0)
+            return -1;
+        time = MathUtils.modRange(time, Playlist.MAX_SECS);
+        int i = findStart(time) - 1;
+        if (i >= 0 && isAiring(_segs[i], time))
+            return i;
+        // The last segment may wrap past midnight
+        int last = _segs.length - 1;
+        if (isAiring(_segs[last], time))
+            return last;
+        return -1;
+    }
+
+    /**
+     * Look up what's airing at a given time
+     * @param time Time relative to midnight (seconds)
+     * @param count Number of upcoming segments to include
+     * @return Current segment, slot and upcoming segments
+     */
+    public NowPlaying query(double time, int count) {
+        time = MathUtils.modRange(time, Playlist.MAX_SECS);
+        int cur = indexAt(time);
+        int first = cur != -1 ? cur + 1 : findStart(time);
+        List<Segment> next = new ArrayList<>();
+        for (int i = 0; i < Math.min(count, _segs.length - (cur != -1 ? 1 : 0)); i++)
+            next.add(_segs[(first + i) % _segs.length]);
+        ScheduleSlot slot = _schedule != null ? _schedule.findSlotAt(time / 60) : null;
+        return new NowPlaying(time, cur != -1 ? _segs[cur] : null, slot, next);
+    }
+
+    /**
+     * Binary search for the first segment that starts after a given time
+     * @param time Time relative to midnight (seconds)
+     * @return Segment index (or size if none)
+     */
+    private int findStart(double time) {
+        int lo = 0, hi = _starts.length;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (_starts[mid] <= time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    private static boolean isAiring(Segment s, double time) {
+        if (s.endTime >= s.startTime)
+            return time >= s.startTime && time < s.endTime;
+        // Wraps past midnight
+        return time >= s.startTime || time < s.endTime;
+    }
+}
@@ -1,16 +1,19 @@
 package software.blob.tv.obj;
 
 import com.google.gson.*;
+import com.google.gson.reflect.TypeToken;
+import com.google.gson.stream.JsonWriter;
 import software.blob.tv.Config;
 import software.blob.tv.filters.FilterDeserializer;
 import software.blob.tv.filters.SegmentFilter;
 import software.blob.tv.util.FileUtils;
 import software.blob.tv.util.Log;
+import software.blob.tv.util.Metrics;
 import software.blob.tv.util.MathUtils;
 import software.blob.tv.util.RandUtils;
 
-import java.io.File;
-import java.io.FileFilter;
+import java.io.*;
+import java.lang.reflect.Type;
 import java.util.*;
 
 /**
@@ -27,10 +30,15 @@ public class Playlist extends ArrayList<Segment> {
 
     private static final Comparator<Segment> TIME_COMPARATOR = Comparator.comparingDouble(s -> s.startTime);
 
-    private static final Map<File, Playlist> _showCache = new HashMap<>();
+    // Segment filters are written by their runtime type (no need to HTML-escape special characters)
+    private static final Gson FILTER_GSON = new GsonBuilder().disableHtmlEscaping().create();
+    private static final Type FILTERS_TYPE = new TypeToken<List<SegmentFilter>>() {}.getType();
 
     private final Map<String, Object> _data = new HashMap<>();
     private boolean _sortedByDuration = false;
+
+    // Value of modCount when the segments were last known to be in timeline order (-1 = unknown)
+    private int _timelineMod = -1;
     private int _slotSize = 0;
 
     public Playlist() {
@@ -52,11 +60,19 @@ public class Playlist extends ArrayList<Segment> {
      * @param slotSize Time slot size in minutes
      */
     public Playlist(File dir, int slotSize) {
-        this(_showCache.get(dir));
+        this(ShowCache.get(dir));
         _slotSize = slotSize;
 
-        if(!isEmpty() || !FileUtils.readableDir(dir, true))
+        if(!isEmpty()) {
+            Metrics.count("show_cache_hits");
+            return;
+        }
+        if(!FileUtils.readableDir(dir, true))
             return;
+        long start = System.nanoTime();
+
+        // Read modification times first so changes made while parsing invalidate the entry
+        long[] stamp = ShowCache.stamp(dir);
 
         // Durations
         File durFile = new File(dir, Config.get("DUR_JS"));
@@ -74,14 +90,18 @@ public class Playlist extends ArrayList<Segment> {
 
         // Video filters
         File filtersFile = new File(dir, Config.get("FILTERS_JS"));
+        JsonElement filtersJs = null;
         List<SegmentFilter> filters = null;
-        if (filtersFile.exists())
-            filters = FilterDeserializer.getFilters(FileUtils.loadJSON(filtersFile));
+        if (filtersFile.exists()) {
+            filtersJs = FileUtils.loadJSON(filtersFile);
+            filters = FilterDeserializer.getFilters(filtersJs);
+        }
 
         Playlist cached = new Playlist();
         cached.makeSegments(dir.listFiles(MP4_FILTER), starts, durs, info, filters);
-        _showCache.put(dir, cached);
+        ShowCache.put(dir, cached, stamp, filtersJs);
         copy(cached);
+        Metrics.time("show_load", start);
     }
 
     public Playlist(File dir) {
@@ -106,8 +126,20 @@ public class Playlist extends ArrayList<Segment> {
 
     @Override
     public boolean add(Segment s) {
+        // Appending in duration order keeps the list sorted
+        _sortedByDuration &= isEmpty() || DUR_COMPARATOR.compare(last(), s) <= 0;
+        boolean timeline = isTimeline() && (isEmpty() ? s.endTime >= s.startTime : isTimelineNext(last(), s));
+        boolean ret = super.add(s);
+        if (timeline)
+            _timelineMod = modCount;
+        return ret;
+    }
+
+    @Override
+    public Segment set(int index, Segment s) {
         _sortedByDuration = false;
-        return super.add(s);
+        _timelineMod = -1;
+        return super.set(index, s);
     }
 
     public void add(double startTime, Segment seg, boolean push) {
@@ -136,8 +168,13 @@ public class Playlist extends ArrayList<Segment> {
         // Always copy before adding
         seg = new Segment(seg);
 
+        // Segments in timeline order can be searched instead of scanned
+        boolean ordered = seg.getDuration() >= 0 && checkTimeline();
+
         int pos = 0;
-        if(push) {
+        if(push && ordered) {
+            pos = findNearestBoundary(startTime, seg);
+        } else if(push) {
             double minDiff = Double.MAX_VALUE;
             for (int i = 0; i < size(); i++) {
                 Segment s = get(i);
@@ -156,7 +193,11 @@ public class Playlist extends ArrayList<Segment> {
             }
         } else {
             seg.setStartTime(startTime);
-            for (Segment s : this) {
+            // Every segment starting before this one is skipped over by the scan below
+            if (ordered)
+                pos = findStart(seg.startTime);
+            for (int i = pos; i < size(); i++) {
+                Segment s = get(i);
                 if(seg.endTime <= s.startTime)
                     break;
                 else if(seg.startTime <= s.startTime)
@@ -167,19 +208,132 @@ public class Playlist extends ArrayList<Segment> {
                 seg.setStartTime(get(size()-1).endTime);
         }
 
+        // The new segment may still overlap the one before it (non-push only)
+        boolean timeline = ordered && (pos == 0 || isTimelineNext(get(pos - 1), seg));
+
         super.add(pos, seg);
         // Remove overlaps
         for(int i = pos+1; i < size(); i++) {
             if(get(i-1).endTime > get(i).startTime)
                 get(i).setStartTime(get(i-1).endTime);
+            else if(ordered)
+                break; // The rest of the segments were already in order
         }
 
+        _timelineMod = timeline ? modCount : -1;
+
         /*double[] gaps = getMaxGaps();
         if(gaps[0] != 0 && gaps[1] != 0) {
             Log.d(TAG, "bla");
         }*/
     }
 
+    /**
+     * Check if the segments are known to be in timeline order
+     * (sorted by start time, with no overlaps and no negative durations)
+     * Segment times are public, so this is only tracked for changes made through this playlist
+     * @return True if in timeline order
+     */
+    private boolean isTimeline() {
+        return _timelineMod == modCount;
+    }
+
+    /**
+     * Same as {@link #isTimeline()} but scans the segments if their order is unknown
+     * @return True if in timeline order
+     */
+    private boolean checkTimeline() {
+        if (isTimeline())
+            return true;
+        _timelineMod = -1;
+        for (int i = 0; i < size(); i++) {
+            Segment s = super.get(i);
+            if (!(s.endTime >= s.startTime) || i > 0 && !isTimelineNext(super.get(i - 1), s))
+                return false;
+        }
+        _timelineMod = modCount;
+        return true;
+    }
+
+    private static boolean isTimelineNext(Segment prev, Segment next) {
+        return prev.startTime <= next.startTime && prev.endTime <= next.startTime
+                && next.endTime >= next.startTime;
+    }
+
+    /**
+     * Binary search for the first segment that starts at or after a given time
+     * Segments must be in timeline order
+     * @param time Time in seconds
+     * @return Segment index (or size if none)
+     */
+    private int findStart(double time) {
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (super.get(mid).startTime < time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
+    /**
+     * Get the start (even) or end (odd) time of a segment
+     * In timeline order these boundaries never decrease
+     * @param b Boundary index
+     * @return Boundary time in seconds
+     */
+    private double getBoundary(int b) {
+        Segment s = super.get(b / 2);
+        return b % 2 == 0 ? s.startTime : s.endTime;
+    }
+
+    /**
+     * Move a segment to the segment boundary closest to a given time
+     * Earlier boundaries win ties, same as the linear scan
+     * Segments must be in timeline order
+     * @param time Time in seconds
+     * @param seg Segment to move
+     * @return Index to insert the segment at
+     */
+    private int findNearestBoundary(double time, Segment seg) {
+        int count = size() * 2;
+        if (count == 0)
+            return 0;
+
+        // First boundary at or after the time
+        int lo = 0, hi = count;
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (getBoundary(mid) < time)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        int b = lo;
+
+        // Boundaries before the time get closer as they go, so find the first of the closest ones
+        if (lo > 0) {
+            double minDiff = Math.abs(time - getBoundary(lo - 1));
+            if (lo >= count || minDiff <= Math.abs(time - getBoundary(lo))) {
+                hi = lo - 1;
+                lo = 0;
+                while (lo < hi) {
+                    int mid = (lo + hi) >>> 1;
+                    if (Math.abs(time - getBoundary(mid)) > minDiff)
+                        lo = mid + 1;
+                    else
+                        hi = mid;
+                }
+                b = lo;
+            }
+        }
+
+        seg.setStartTime(getBoundary(b));
+        return b / 2 + b % 2;
+    }
+
     public void add(double startTime, Segment seg) {
         add(startTime, seg, false);
     }
@@ -224,14 +378,33 @@ public class Playlist extends ArrayList<Segment> {
      * @param simpleMethod True to push segments onto the stack
      */
     public void merge(Playlist other, boolean simpleMethod) {
-        this.sort(TIME_COMPARATOR);
+        // Skip sorting when the segments are already in order
+        if(!isTimeline())
+            this.sort(TIME_COMPARATOR);
         for(Segment s : other) {
             if(simpleMethod)
                 add(s);
             else
                 add(s.startTime, s);
         }
-        this.sort(TIME_COMPARATOR);
+        if(!isTimeline())
+            this.sort(TIME_COMPARATOR);
+    }
+
+    /**
+     * Replace the segments starting at or after a given time with the ones from another playlist
+     * Segments starting earlier are left untouched
+     * @param other Playlist to take the later segments from
+     * @param time Time relative to midnight (seconds)
+     */
+    public void splice(Playlist other, double time) {
+        removeIf(s -> s.startTime >= time);
+        Playlist later = new Playlist();
+        for (Segment s : other) {
+            if (s.startTime >= time)
+                later.add(s);
+        }
+        merge(later, true);
     }
 
     /**
@@ -244,6 +417,8 @@ public class Playlist extends ArrayList<Segment> {
             addAll(other);
             this._sortedByDuration = other._sortedByDuration;
             this._slotSize = other._slotSize;
+            if (other.isTimeline())
+                this._timelineMod = modCount;
         }
     }
 
@@ -262,7 +437,8 @@ public class Playlist extends ArrayList<Segment> {
             Segment seg = new Segment(f);
             String name = seg.name;
             if(!durs.has(name)) {
-                Log.w(TAG, name + " is missing duration!");
+                if (Log.isLoggable(Log.WARNING))
+                    Log.w(TAG, name + " is missing duration!");
                 continue;
             }
             seg.streamStart = starts.has(name) ? starts.get(name).getAsDouble() : 0;
@@ -342,6 +518,7 @@ public class Playlist extends ArrayList<Segment> {
             s.startTime = MathUtils.modRange(s.startTime + seconds, MAX_SECS);
             s.endTime = MathUtils.modRange(s.endTime + seconds, MAX_SECS);
         }
+        _timelineMod = -1;
         this.sort(TIME_COMPARATOR);
     }
 
@@ -380,12 +557,7 @@ public class Playlist extends ArrayList<Segment> {
      */
     public Segment getRandomSegment(double maxDuration) {
         sortByDuration();
-        int limit = 0;
-        for (Segment s : this) {
-            if(s.getDuration() > maxDuration)
-                break;
-            limit++;
-        }
+        int limit = findDuration(maxDuration, true);
         if(limit > 0)
             return get(RandUtils.rand(limit));
         return null;
@@ -399,20 +571,34 @@ public class Playlist extends ArrayList<Segment> {
      */
     public Segment getRandomSegment(double minDuration, double maxDuration) {
         sortByDuration();
-        int start = 0, limit = 0;
-        for (Segment s : this) {
-            if(s.getDuration() < minDuration)
-                start++;
-            if(s.getDuration() > maxDuration)
-                break;
-            limit++;
-        }
+        int limit = findDuration(maxDuration, true);
+        int start = Math.min(findDuration(minDuration, false), limit);
         limit -= start;
         if(limit > 0)
             return get(start + RandUtils.rand(limit));
         return null;
     }
 
+    /**
+     * Binary search for the first segment longer than a given duration
+     * Segments must be sorted by duration (removing segments keeps them sorted)
+     * @param duration Duration in seconds
+     * @param inclusive True to skip segments equal to the duration
+     * @return Segment index (or size if none)
+     */
+    private int findDuration(double duration, boolean inclusive) {
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            double dur = super.get(mid).getDuration();
+            if (dur < duration || inclusive && dur == duration)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo;
+    }
+
     /**
      * Cumulative duration of segments
      * @return Total duration in seconds
@@ -434,6 +620,7 @@ public class Playlist extends ArrayList<Segment> {
         double curDur = getDuration();
         double gapSize = (duration - curDur) / size();
         double gapTotal = 0;
+        _timelineMod = -1;
         for(Segment s : this) {
             s.setStartTime(s.startTime + gapTotal);
             gapTotal += gapSize;
@@ -545,17 +732,152 @@ public class Playlist extends ArrayList<Segment> {
         return c.cast(ret);
     }
 
+    /**
+     * Load a playlist written by {@link #writeJson(Writer)}
+     * @param jsonFile Playlist JSON file
+     * @return Playlist or null if the file couldn't be read
+     */
+    public static Playlist load(File jsonFile) {
+        if (!FileUtils.readableFile(jsonFile, true))
+            return null;
+        JsonElement el = FileUtils.loadJSON(jsonFile);
+        if (!el.isJsonArray()) {
+            Log.e(TAG, "Invalid playlist file: " + jsonFile);
+            return null;
+        }
+        return fromJson(el.getAsJsonArray());
+    }
+
+    /**
+     * Read segments from playlist JSON
+     * Segment paths are made absolute again and segment names are restored
+     * @param arr Array of segments
+     * @return Playlist
+     */
+    public static Playlist fromJson(JsonArray arr) {
+        String homeDir = Config.get("BTV_HOME") + File.separator;
+        Gson gson = new Gson();
+        Playlist pl = new Playlist();
+        pl.ensureCapacity(arr.size());
+        for (JsonElement el : arr) {
+            if (!el.isJsonObject())
+                continue;
+            JsonObject jo = el.getAsJsonObject();
+            JsonElement filters = jo.remove("filters");
+            Segment s = gson.fromJson(jo, Segment.class);
+            if (filters != null)
+                s.filters = FilterDeserializer.getFilters(filters);
+            restoreSegment(s, homeDir);
+            pl.add(s);
+        }
+        return pl;
+    }
+
+    /**
+     * Restore the segment fields that aren't written out to playlist files
+     * @param s Segment
+     * @param homeDir BTV_HOME directory (with trailing separator)
+     */
+    static void restoreSegment(Segment s, String homeDir) {
+        if (s.path == null)
+            return;
+        if (!new File(s.path).isAbsolute())
+            s.path = homeDir + s.path;
+        String name = new File(s.path).getName();
+        s.name = name.contains(".") ? name.substring(0, name.lastIndexOf(".")) : name;
+    }
+
     /**
      * Convert playlist to a human-readable JSON string
      * Also strips absolute show directory to reduce size
      * @return Playlist as JSON string
      */
     public String toJsonString() {
+        StringWriter sw = new StringWriter();
+        try {
+            writeJson(sw);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to serialize playlist", e);
+        }
+        return sw.toString();
+    }
+
+    /**
+     * Stream playlist as human-readable JSON (one segment per line)
+     * Also strips absolute show directory from segment paths to reduce size
+     * @param writer Output writer
+     * @throws IOException Failed to write
+     */
+    public void writeJson(Writer writer) throws IOException {
         String homeDir = Config.get("BTV_HOME") + File.separator;
-        GsonBuilder gs = new GsonBuilder();
-        gs.disableHtmlEscaping(); // No need to HTML-escape special characters
-        return gs.create().toJson(this)
-                .replaceAll("},", "},\n")
-                .replaceAll(homeDir, "");
+        writer.write('[');
+        for (int i = 0; i < size(); i++) {
+            if (i > 0)
+                writer.write(",\n");
+            JsonWriter out = new JsonWriter(writer);
+            writeSegment(out, super.get(i), homeDir);
+            out.flush();
+        }
+        writer.write(']');
+    }
+
+    /**
+     * Write a segment's fields (same names, order and null handling as Gson's reflective adapter)
+     * @param out JSON writer
+     * @param s Segment
+     * @param homeDir BTV_HOME directory stripped from the path (with trailing separator)
+     * @throws IOException Failed to write
+     */
+    private static void writeSegment(JsonWriter out, Segment s, String homeDir) throws IOException {
+        out.beginObject();
+        if (s.path != null)
+            out.name("path").value(relativePath(s.path, homeDir));
+        if (s.show != null)
+            out.name("show").value(s.show);
+        if (s.title != null)
+            out.name("title").value(s.title);
+        out.name("start").value(s.start);
+        out.name("end").value(s.end);
+        out.name("streamStart").value(s.streamStart);
+        out.name("startTime").value(s.startTime);
+        out.name("endTime").value(s.endTime);
+        if (s.allowCrop != null)
+            out.name("allowCrop").value(s.allowCrop.booleanValue());
+        if (s.format != null)
+            out.name("format").value(s.format.name());
+        if (s.filters != null) {
+            out.name("filters");
+            FILTER_GSON.toJson(s.filters, FILTERS_TYPE, out);
+        }
+        if (s.episode != null)
+            out.name("episode").value(s.episode.longValue());
+        if (s.season != null)
+            out.name("season").value(s.season.longValue());
+        if (s.part != null)
+            out.name("part").value(String.valueOf(s.part));
+        if (s.epType != null)
+            out.name("epType").value(s.epType.name());
+        out.endObject();
+    }
+
+    /**
+     * Write playlist in the compact binary format (see {@link BinaryPlaylist})
+     * @param os Output stream
+     * @throws IOException Failed to write
+     */
+    public void writeBinary(OutputStream os) throws IOException {
+        BinaryPlaylist.write(this, os);
+    }
+
+    /**
+     * Strip the BTV_HOME directory from a path
+     * @param path Absolute path
+     * @param homeDir BTV_HOME directory (with trailing separator)
+     * @return Relative path (or the same path if it isn't under BTV_HOME)
+     */
+    static String relativePath(String path, String homeDir) {
+        if (path != null && path.startsWith(homeDir))
+            return path.substring(homeDir.length());
+        return path;
     }
 }
@@ -6,6 +6,9 @@ import software.blob.tv.util.Log;
 import software.blob.tv.util.MathUtils;
 
 import java.io.File;
+import java.io.IOException;
+import java.io.StringWriter;
+import java.io.Writer;
 import java.util.ArrayList;
 import java.util.Comparator;
 
@@ -103,33 +106,97 @@ public class Schedule extends ArrayList<ScheduleSlot> {
      */
     public ScheduleSlot findShow(Segment seg) {
         if (seg.format == Segment.Format.SHOW) {
-            int startMin = (int) Math.round(seg.startTime / 60);
-            for (ScheduleSlot ss : this) {
-                if (seg.show.equals(ss.Show) && startMin >= ss.TimeSlot
-                        && startMin < ss.TimeSlot + getRunTime(ss)) {
-                    return ss;
-                }
-            }
+            // Slots don't overlap, so only the slot at the segment's start time can match
+            ScheduleSlot ss = findSlotByTime((int) Math.round(seg.startTime / 60));
+            if (ss != null && seg.show.equals(ss.Show))
+                return ss;
         }
         return null;
     }
 
+    /**
+     * Find the slot airing at a given time
+     * @param startMin Time relative to midnight (minutes)
+     * @return Slot or null if the time is before the first slot
+     */
     public ScheduleSlot findSlotByTime(int startMin) {
-        for (int i = 0; i < size(); i++) {
-            ScheduleSlot ss = get(i);
-            if (startMin >= ss.TimeSlot && startMin < ss.TimeSlot + getRunTime(i))
-                return ss;
-        }
+        int i = findSlotIndex(startMin);
+        if (i != -1 && startMin < get(i).TimeSlot + getRunTime(i))
+            return get(i);
         return null;
     }
 
+    /**
+     * Find the slot airing at a given time
+     * Unlike {@link #findSlotByTime(int)}, times before the first slot belong to the
+     * last slot of the day (which wraps past midnight)
+     * @param startMin Time relative to midnight (minutes)
+     * @return Slot or null if the schedule is empty
+     */
+    public ScheduleSlot findSlotAt(double startMin) {
+        if (isEmpty())
+            return null;
+        int i = findSlotIndex(MathUtils.modRange(startMin, 1440));
+        return get(i != -1 ? i : size() - 1);
+    }
+
+    /**
+     * Binary search for the last slot that starts at or before a given time
+     * Slots must be sorted by time (same as the schedule files)
+     * @param startMin Time relative to midnight (minutes)
+     * @return Slot index or -1 if every slot starts later
+     */
+    private int findSlotIndex(double startMin) {
+        int lo = 0, hi = size();
+        while (lo < hi) {
+            int mid = (lo + hi) >>> 1;
+            if (get(mid).TimeSlot <= startMin)
+                lo = mid + 1;
+            else
+                hi = mid;
+        }
+        return lo - 1;
+    }
+
+    /**
+     * Find the first slot that starts at or after a given time
+     * @param startMin Time relative to midnight (minutes)
+     * @return Slot index or -1 if every slot starts earlier
+     */
+    public int findNextSlot(double startMin) {
+        int i = findSlotIndex(startMin);
+        if (i != -1 && get(i).TimeSlot == startMin)
+            return i;
+        return i + 1 < size() ? i + 1 : -1;
+    }
+
     /**
      * Convert schedule to a human-readable JSON string
      * @return Schedule as JSON string
      */
     public String toJsonString() {
-        Gson gs = new Gson();
-        return gs.toJson(this)
-                .replaceAll("},", "},\n");
+        StringWriter sw = new StringWriter();
+        try {
+            writeJson(sw);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to serialize schedule", e);
+        }
+        return sw.toString();
+    }
+
+    /**
+     * Stream schedule as human-readable JSON (one slot per line)
+     * @param writer Output writer
+     * @throws IOException Failed to write
+     */
+    public void writeJson(Writer writer) throws IOException {
+        Gson gson = new Gson();
+        writer.write('[');
+        for (int i = 0; i < size(); i++) {
+            if (i > 0)
+                writer.write(",\n");
+            gson.toJson(get(i), ScheduleSlot.class, writer);
+        }
+        writer.write(']');
     }
 }
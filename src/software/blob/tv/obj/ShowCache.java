@@ -0,0 +1,222 @@
+package software.blob.tv.obj;
+
+import com.google.gson.JsonElement;
+import software.blob.tv.Config;
+import software.blob.tv.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.util.*;
+
+/**
+ * Thread-safe cache of the segments found in each show directory
+ *
+ * Entries are validated against the modification times of the show directory and its metadata files
+ * (durations.js, starts.js, info.js and filters.js), evicted least-recently-used once the memory budget
+ * is exceeded ("SHOW_CACHE_MB"), and persisted between runs as a {@link ShowCatalog} ("SHOW_CACHE").
+ */
+public class ShowCache {
+
+    private static final String TAG = "ShowCache";
+
+    // Metadata files each entry is validated against (in addition to the directory itself)
+    private static final String[] META_KEYS = { "DUR_JS", "STARTS_JS", "INFO_JS", "FILTERS_JS" };
+
+    private static final Map<File, Entry> _entries = new LinkedHashMap<>(64, 0.75f, true);
+    private static final Set<File> _stale = new HashSet<>();
+
+    // Shows parsed since the last save (kept until they're written, even if evicted)
+    private static final Map<File, ShowCatalog.Show> _pending = new HashMap<>();
+    private static ShowCatalog _catalog;
+    private static long _bytes = 0;
+    private static boolean _opened = false, _dirty = false;
+
+    /**
+     * Get the cached segments for a show directory
+     * @param dir Show directory
+     * @return Cached playlist (must not be modified) or null if missing or out of date
+     */
+    public static Playlist get(File dir) {
+        if (dir == null)
+            return null;
+        long[] stamp = stamp(dir);
+        synchronized (ShowCache.class) {
+            openCatalog();
+            Entry e = _entries.get(dir);
+            if (e == null) {
+                // Reload an evicted show that hasn't been saved yet, or load from the catalog on first use
+                ShowCatalog.Show show = _pending.get(dir);
+                if (show == null && _catalog != null && !_stale.contains(dir))
+                    show = _catalog.getShow(dir);
+                if (show != null)
+                    insert(e = new Entry(show));
+            }
+            if (e == null)
+                return null;
+            if (!Arrays.equals(e.stamp, stamp)) {
+                Log.d(TAG, "Show metadata changed: " + dir);
+                invalidate(dir);
+                return null;
+            }
+            return e.segments;
+        }
+    }
+
+    /**
+     * Add segments for a show directory to the cache
+     * @param dir Show directory
+     * @param pl Segments parsed from the directory
+     * @param stamp Modification times read before the directory was parsed (see {@link #stamp(File)})
+     * @param filters The filters.js content applied to each segment (null if N/A)
+     */
+    public static void put(File dir, Playlist pl, long[] stamp, JsonElement filters) {
+        synchronized (ShowCache.class) {
+            openCatalog();
+            ShowCatalog.Show show = new ShowCatalog.Show(dir, stamp, pl,
+                    filters != null ? filters.toString() : null);
+            remove(dir);
+            insert(new Entry(show));
+            _pending.put(dir, show);
+            _dirty = true;
+        }
+    }
+
+    /**
+     * Drop a show directory from the cache
+     * @param dir Show directory
+     */
+    public static synchronized void invalidate(File dir) {
+        remove(dir);
+        _pending.remove(dir);
+        _stale.add(dir);
+        _dirty = true;
+    }
+
+    /**
+     * Read the modification times used to validate a cache entry
+     * @param dir Show directory
+     * @return Directory and metadata file modification times (0 if missing)
+     */
+    public static long[] stamp(File dir) {
+        long[] stamp = new long[META_KEYS.length + 1];
+        stamp[0] = dir.lastModified();
+        for (int i = 0; i < META_KEYS.length; i++)
+            stamp[i + 1] = new File(dir, Config.get(META_KEYS[i])).lastModified();
+        return stamp;
+    }
+
+    /**
+     * Write the cache out to the "SHOW_CACHE" catalog (if anything changed)
+     * Shows parsed since the last save are written even if they've been evicted, and shows
+     * that are still valid in the current catalog are carried over
+     */
+    public static synchronized void save() {
+        File cacheFile = getCacheFile();
+        if (cacheFile == null || !_dirty)
+            return;
+        File dir = cacheFile.getParentFile();
+        if (dir != null && !dir.exists() && !dir.mkdirs()) {
+            Log.e(TAG, "Failed to create cache directory: " + dir);
+            return;
+        }
+
+        Map<File, ShowCatalog.Show> shows = new LinkedHashMap<>();
+        for (Entry e : _entries.values())
+            shows.put(e.show.dir, e.show);
+        for (ShowCatalog.Show show : _pending.values())
+            shows.putIfAbsent(show.dir, show);
+        if (_catalog != null) {
+            for (File showDir : _catalog.getDirectories()) {
+                if (!shows.containsKey(showDir) && !_stale.contains(showDir))
+                    shows.put(showDir, _catalog.getShow(showDir));
+            }
+        }
+
+        File tmp = new File(cacheFile.getPath() + ".tmp");
+        try {
+            ShowCatalog.write(tmp, shows.values());
+            Files.move(tmp.toPath(), cacheFile.toPath(), StandardCopyOption.REPLACE_EXISTING);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write show catalog " + cacheFile, e);
+            return;
+        }
+        _catalog = ShowCatalog.open(cacheFile);
+        _stale.clear();
+        _pending.clear();
+        _dirty = false;
+        Log.d(TAG, "Wrote " + shows.size() + " shows to " + cacheFile);
+    }
+
+    private static File getCacheFile() {
+        String path = Config.get("SHOW_CACHE");
+        return path != null && !path.isEmpty() ? new File(path) : null;
+    }
+
+    private static long getBudget() {
+        return Config.getInt("SHOW_CACHE_MB", 256) * 1024L * 1024L;
+    }
+
+    private static void openCatalog() {
+        if (_opened)
+            return;
+        _opened = true;
+        _catalog = ShowCatalog.open(getCacheFile());
+        if (_catalog != null)
+            Log.d(TAG, "Mapped " + _catalog.getDirectories().size() + " cached shows from "
+                    + _catalog.getFile());
+    }
+
+    private static void remove(File dir) {
+        Entry e = _entries.remove(dir);
+        if (e != null)
+            _bytes -= e.bytes;
+    }
+
+    private static void insert(Entry e) {
+        _entries.put(e.show.dir, e);
+        _bytes += e.bytes;
+
+        // Evict least recently used entries (except the one we just added)
+        long budget = getBudget();
+        Iterator<Entry> it = _entries.values().iterator();
+        while (_bytes > budget && it.hasNext()) {
+            Entry old = it.next();
+            if (old == e)
+                break;
+            it.remove();
+            _bytes -= old.bytes;
+        }
+    }
+
+    /**
+     * Rough heap usage of a segment (object headers, boxed fields and strings)
+     * @param s Segment
+     * @return Size in bytes
+     */
+    private static long estimateSize(Segment s) {
+        return 160 + 2L * (length(s.path) + length(s.show) + length(s.title) + length(s.name));
+    }
+
+    private static int length(String str) {
+        return str != null ? str.length() : 0;
+    }
+
+    private static class Entry {
+        final ShowCatalog.Show show;
+        final long[] stamp;
+        final Playlist segments;
+        final long bytes;
+
+        Entry(ShowCatalog.Show show) {
+            this.show = show;
+            this.stamp = show.stamp;
+            this.segments = show.segments;
+            long bytes = 64 + 2L * length(show.filters);
+            for (Segment s : segments)
+                bytes += estimateSize(s);
+            this.bytes = bytes;
+        }
+    }
+}
@@ -0,0 +1,234 @@
+package software.blob.tv.obj;
+
+import com.google.gson.JsonParser;
+import software.blob.tv.filters.FilterDeserializer;
+import software.blob.tv.filters.SegmentFilter;
+import software.blob.tv.util.Log;
+import software.blob.tv.util.StringTable;
+
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+import java.util.*;
+
+/**
+ * Compiled, memory-mapped catalog of show directories
+ *
+ * Layout (big-endian):
+ * Header - magic, version, show count, segment count and the offset of each section
+ * Shows - fixed-width show records (directory, filters, modification times, segment range)
+ * Segments - fixed-width segment records (strings are offsets into the string table)
+ * Strings - see {@link StringTable}
+ *
+ * Only the show index is read into memory when the catalog is opened. Segments are
+ * created the first time a show is requested.
+ */
+public class ShowCatalog {
+
+    private static final String TAG = "ShowCatalog";
+
+    private static final int MAGIC = 0x4254564B; // "BTVK"
+    private static final int VERSION = 1;
+    private static final int HEADER_SIZE = 64;
+    private static final int STAMP_COUNT = 5;
+    private static final int SHOW_SIZE = 4 + 4 + STAMP_COUNT * 8 + 4 + 4;
+    private static final int SEG_SIZE = 4 * 4 + 3 * 8 + 1 + 1 + 2 + 4 + 4;
+    private static final int NONE = Integer.MIN_VALUE;
+
+    private final File _file;
+    private final MappedByteBuffer _buf;
+    private final int _showCount, _showsPos, _segsPos, _stringsPos;
+    private final Map<File, Integer> _index = new HashMap<>();
+
+    private ShowCatalog(File file, MappedByteBuffer buf) throws IOException {
+        _file = file;
+        _buf = buf;
+        if (buf.getInt(0) != MAGIC || buf.getInt(4) != VERSION)
+            throw new IOException("Unknown catalog format");
+        _showCount = buf.getInt(8);
+        _showsPos = (int) buf.getLong(16);
+        _segsPos = (int) buf.getLong(24);
+        _stringsPos = (int) buf.getLong(32);
+        for (int i = 0; i < _showCount; i++)
+            _index.put(new File(readString(showPos(i))), i);
+    }
+
+    /**
+     * Memory-map an existing catalog file
+     * @param file Catalog file
+     * @return Catalog or null if the file is missing or invalid
+     */
+    public static ShowCatalog open(File file) {
+        if (file == null || !file.isFile())
+            return null;
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            // The mapping remains valid after the channel is closed
+            MappedByteBuffer buf = fc.map(FileChannel.MapMode.READ_ONLY, 0, fc.size());
+            return new ShowCatalog(file, buf);
+        } catch (Exception e) {
+            Log.w(TAG, "Ignoring invalid catalog " + file + ": " + e.getMessage());
+        }
+        return null;
+    }
+
+    public File getFile() {
+        return _file;
+    }
+
+    /**
+     * Get the directories of every show in this catalog
+     * @return Show directories
+     */
+    public Set<File> getDirectories() {
+        return Collections.unmodifiableSet(_index.keySet());
+    }
+
+    /**
+     * Read a show from the catalog
+     * @param dir Show directory
+     * @return Show or null if the directory isn't in this catalog
+     */
+    public Show getShow(File dir) {
+        Integer idx = _index.get(dir);
+        if (idx == null)
+            return null;
+        int pos = showPos(idx);
+        long[] stamp = new long[STAMP_COUNT];
+        for (int i = 0; i < STAMP_COUNT; i++)
+            stamp[i] = _buf.getLong(pos + 8 + i * 8);
+        String filtersJs = readString(pos + 4);
+        int first = _buf.getInt(pos + 8 + STAMP_COUNT * 8);
+        int count = _buf.getInt(pos + 12 + STAMP_COUNT * 8);
+
+        List<SegmentFilter> filters = filtersJs != null ? FilterDeserializer.getFilters(
+                new JsonParser().parse(filtersJs)) : null;
+        Playlist pl = new Playlist();
+        pl.ensureCapacity(count);
+        for (int i = first; i < first + count; i++) {
+            Segment s = readSegment(_segsPos + i * SEG_SIZE);
+            if (filters != null)
+                s.filters = new ArrayList<>(filters);
+            pl.add(s);
+        }
+        return new Show(dir, stamp, pl, filtersJs);
+    }
+
+    private int showPos(int idx) {
+        return _showsPos + idx * SHOW_SIZE;
+    }
+
+    private String readString(int pos) {
+        return StringTable.read(_buf, _stringsPos, _buf.getInt(pos));
+    }
+
+    private Segment readSegment(int pos) {
+        Segment s = new Segment();
+        s.path = readString(pos);
+        s.show = readString(pos + 4);
+        s.title = readString(pos + 8);
+        s.name = readString(pos + 12);
+        s.start = _buf.getDouble(pos + 16);
+        s.end = _buf.getDouble(pos + 24);
+        s.streamStart = _buf.getDouble(pos + 32);
+        byte format = _buf.get(pos + 40), epType = _buf.get(pos + 41);
+        s.format = format >= 0 ? Segment.Format.values()[format] : null;
+        s.epType = epType >= 0 ? Segment.EpisodeType.values()[epType] : null;
+        char part = _buf.getChar(pos + 42);
+        s.part = part != Character.MAX_VALUE ? part : null;
+        int episode = _buf.getInt(pos + 44), season = _buf.getInt(pos + 48);
+        s.episode = episode != NONE ? episode : null;
+        s.season = season != NONE ? season : null;
+        return s;
+    }
+
+    /**
+     * Compile a catalog file
+     * @param file Output file
+     * @param shows Shows to include
+     * @throws IOException Failed to write the file
+     */
+    public static void write(File file, Collection<? extends Show> shows) throws IOException {
+        // Strings go last, but their offsets are needed by the records
+        StringTable strings = new StringTable();
+        List<int[]> showStrs = new ArrayList<>(shows.size());
+        List<int[]> segStrs = new ArrayList<>();
+        for (Show show : shows) {
+            showStrs.add(new int[] { strings.add(show.dir.getPath()), strings.add(show.filters) });
+            for (Segment s : show.segments)
+                segStrs.add(new int[] { strings.add(s.path), strings.add(s.show),
+                        strings.add(s.title), strings.add(s.name) });
+        }
+
+        long showsPos = HEADER_SIZE;
+        long segsPos = showsPos + (long) shows.size() * SHOW_SIZE;
+        long stringsPos = segsPos + (long) segStrs.size() * SEG_SIZE;
+        if (stringsPos + strings.size() > Integer.MAX_VALUE)
+            throw new IOException("Catalog is too large to map");
+
+        try (DataOutputStream dos = new DataOutputStream(new BufferedOutputStream(
+                new FileOutputStream(file)))) {
+            // Header
+            dos.writeInt(MAGIC);
+            dos.writeInt(VERSION);
+            dos.writeInt(shows.size());
+            dos.writeInt(segStrs.size());
+            dos.writeLong(showsPos);
+            dos.writeLong(segsPos);
+            dos.writeLong(stringsPos);
+            dos.writeLong(strings.size());
+            dos.write(new byte[HEADER_SIZE - dos.size()]);
+
+            // Shows
+            int i = 0, first = 0;
+            for (Show show : shows) {
+                int[] strs = showStrs.get(i++);
+                dos.writeInt(strs[0]);
+                dos.writeInt(strs[1]);
+                for (int t = 0; t < STAMP_COUNT; t++)
+                    dos.writeLong(t < show.stamp.length ? show.stamp[t] : 0);
+                dos.writeInt(first);
+                dos.writeInt(show.segments.size());
+                first += show.segments.size();
+            }
+
+            // Segments
+            i = 0;
+            for (Show show : shows) {
+                for (Segment s : show.segments) {
+                    for (int str : segStrs.get(i++))
+                        dos.writeInt(str);
+                    dos.writeDouble(s.start);
+                    dos.writeDouble(s.end);
+                    dos.writeDouble(s.streamStart);
+                    dos.writeByte(s.format != null ? s.format.ordinal() : -1);
+                    dos.writeByte(s.epType != null ? s.epType.ordinal() : -1);
+                    dos.writeChar(s.part != null ? s.part : Character.MAX_VALUE);
+                    dos.writeInt(s.episode != null ? s.episode : NONE);
+                    dos.writeInt(s.season != null ? s.season : NONE);
+                }
+            }
+
+            // Strings
+            strings.writeTo(dos);
+        }
+    }
+
+    /**
+     * Parsed segments of a show directory along with the data needed to validate them
+     */
+    public static class Show {
+        public final File dir;
+        public final long[] stamp;
+        public final Playlist segments;
+        public final String filters;
+
+        public Show(File dir, long[] stamp, Playlist segments, String filters) {
+            this.dir = dir;
+            this.stamp = stamp;
+            this.segments = segments;
+            this.filters = filters;
+        }
+    }
+}
@@ -5,6 +5,7 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import software.blob.tv.util.FileUtils;
 import software.blob.tv.util.Log;
+import software.blob.tv.util.Metrics;
 
 import java.io.File;
 import java.util.*;
@@ -50,6 +51,7 @@ public class ShowInfo {
     public Map<String, Break> breaks;
 
     public ShowInfo(File infoFile) {
+        long start = System.nanoTime();
         showDir = infoFile.getParent();
         _js = FileUtils.loadJSON(infoFile).getAsJsonObject();
         /*if(_js.has(RUNTIME))
@@ -90,6 +92,7 @@ public class ShowInfo {
                 }
             }
         }
+        Metrics.time("show_info", start);
     }
 
     public String getShowDir() {
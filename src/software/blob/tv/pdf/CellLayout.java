@@ -0,0 +1,150 @@
+package software.blob.tv.pdf;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Text laid out to fit in a table cell, either wrapped onto multiple lines or shrunk onto one
+ *
+ * The same show names and episode titles show up on every channel and every day, so layouts
+ * are cached by text, font, font size and cell width.
+ */
+public final class CellLayout {
+
+    private static final String TAG = "CellLayout";
+
+    // Cleared when full so the cache doesn't grow forever in the daemon
+    private static final int MAX_CACHED = 8192;
+    private static final Map<Key, CellLayout> _cache = new ConcurrentHashMap<>();
+
+    // Text of each line
+    public final String[] lines;
+
+    // Width of each line (pt)
+    public final float[] widths;
+
+    // Font size (smaller than requested if the text was shrunk)
+    public final int fontSize;
+
+    private CellLayout(String[] lines, float[] widths, int fontSize) {
+        this.lines = lines;
+        this.widths = widths;
+        this.fontSize = fontSize;
+    }
+
+    /**
+     * Get the layout of a cell
+     * @param metrics Font metrics
+     * @param txt Text to lay out
+     * @param fontSize Size of font in pt
+     * @param maxWidth Max width of a line
+     * @param wrap True to wrap onto multiple lines, false to shrink onto a single line
+     * @return Layout (shared, do not modify)
+     */
+    public static CellLayout get(FontMetrics metrics, String txt, int fontSize, float maxWidth, boolean wrap) {
+        Key key = new Key(metrics.getFont(), txt, fontSize, maxWidth, wrap);
+        CellLayout layout = _cache.get(key);
+        if (layout == null) {
+            layout = wrap ? wrap(metrics, txt, fontSize, maxWidth) : shrink(metrics, txt, fontSize, maxWidth);
+            if (_cache.size() >= MAX_CACHED)
+                _cache.clear();
+            _cache.put(key, layout);
+        }
+        return layout;
+    }
+
+    /**
+     * Break text into wrapped lines based on font parameters
+     * @param metrics Font metrics
+     * @param txt Text to wrap
+     * @param fontSize Size of font in pt
+     * @param maxWidth Max width for wrapping
+     * @return Layout
+     */
+    static CellLayout wrap(FontMetrics metrics, String txt, int fontSize, float maxWidth) {
+        List<String> lines = new ArrayList<>();
+        String[] words = txt.split(" ");
+        StringBuilder sb = new StringBuilder();
+        int i = 0;
+        float totalWidth = 0;
+        float spaceWidth = metrics.getTextWidth(" ", fontSize);
+        for (String s : words) {
+            float width = metrics.getTextWidth(s, fontSize);
+            totalWidth += width;
+            if (totalWidth > maxWidth) {
+                if (!sb.toString().isEmpty())
+                    lines.add(sb.toString());
+                sb = new StringBuilder();
+                totalWidth = 0;
+            }
+            sb.append(s);
+            if (i < words.length - 1) {
+                sb.append(" ");
+                totalWidth += spaceWidth;
+            }
+            i++;
+        }
+        if (!sb.toString().isEmpty())
+            lines.add(sb.toString());
+
+        String[] ret = lines.toArray(new String[0]);
+        float[] widths = new float[ret.length];
+        for (int l = 0; l < ret.length; l++)
+            widths[l] = metrics.getTextWidth(ret[l], fontSize);
+        return new CellLayout(ret, widths, fontSize);
+    }
+
+    /**
+     * Shrink the font size until the text fits on a single line
+     * @param metrics Font metrics
+     * @param txt Text to shrink
+     * @param fontSize Size of font in pt
+     * @param maxWidth Max width of the line
+     * @return Layout
+     */
+    static CellLayout shrink(FontMetrics metrics, String txt, int fontSize, float maxWidth) {
+        float lineWidth = metrics.getTextWidth(txt, fontSize);
+        if (lineWidth > maxWidth) {
+            fontSize = (int) (maxWidth * (fontSize / lineWidth));
+            lineWidth = maxWidth;
+        }
+        return new CellLayout(new String[] {txt}, new float[] {lineWidth}, fontSize);
+    }
+
+    private static final class Key {
+        private final PDFont font;
+        private final String txt;
+        private final int fontSize;
+        private final float maxWidth;
+        private final boolean wrap;
+
+        Key(PDFont font, String txt, int fontSize, float maxWidth, boolean wrap) {
+            this.font = font;
+            this.txt = txt;
+            this.fontSize = fontSize;
+            this.maxWidth = maxWidth;
+            this.wrap = wrap;
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o)
+                return true;
+            if (!(o instanceof Key))
+                return false;
+            Key k = (Key) o;
+            return font == k.font && fontSize == k.fontSize && wrap == k.wrap
+                    && Float.compare(maxWidth, k.maxWidth) == 0 && txt.equals(k.txt);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(System.identityHashCode(font), txt, fontSize, maxWidth, wrap);
+        }
+    }
+}
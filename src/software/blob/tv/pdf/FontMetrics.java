@@ -0,0 +1,127 @@
+package software.blob.tv.pdf;
+
+import org.apache.pdfbox.pdmodel.font.PDFont;
+
+import java.io.IOException;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Glyph advance table for one of the standard (WinAnsiEncoding) fonts
+ *
+ * The standard fonts are singletons shared by every document, and PDFBox caches their glyph
+ * widths and encodings in plain hash maps. Every character the font can encode is measured
+ * and encoded when the table is created, so after that those caches are only read and the
+ * font can be drawn with on multiple threads. Measuring text is a table lookup per character.
+ */
+public final class FontMetrics {
+
+    private static final String TAG = "FontMetrics";
+
+    // Characters outside of Latin-1 that WinAnsiEncoding can encode
+    private static final String WIN_ANSI_EXTRA = "\u0152\u0153\u0160\u0161\u0178\u017D\u017E\u0192\u02C6\u02DC"
+            + "\u2013\u2014\u2018\u2019\u201A\u201C\u201D\u201E\u2020\u2021\u2022\u2026\u2030\u2039\u203A"
+            + "\u20AC\u2122";
+
+    private static final Map<PDFont, FontMetrics> _metrics = new HashMap<>();
+
+    private final PDFont _font;
+
+    // Glyph advances in font units for Latin-1 (NaN = no glyph)
+    private final float[] _latin1 = new float[256];
+
+    // Glyph advances for the rest of the characters
+    private final Map<Character, Float> _extra = new HashMap<>();
+
+    // Font bounding box height in font units
+    private final float _height;
+
+    private FontMetrics(PDFont font) {
+        _font = font;
+        for (int c = 0; c < _latin1.length; c++)
+            _latin1[c] = c >= 0x20 ? measure((char) c) : Float.NaN;
+        for (int i = 0; i < WIN_ANSI_EXTRA.length(); i++) {
+            char c = WIN_ANSI_EXTRA.charAt(i);
+            float width = measure(c);
+            if (!Float.isNaN(width))
+                _extra.put(c, width);
+        }
+        _height = font.getFontDescriptor().getFontBoundingBox().getHeight();
+    }
+
+    /**
+     * Get the glyph advance table for a font (created on first use)
+     * @param font Standard font
+     * @return Metrics
+     */
+    public static synchronized FontMetrics get(PDFont font) {
+        FontMetrics metrics = _metrics.get(font);
+        if (metrics == null) {
+            metrics = new FontMetrics(font);
+            _metrics.put(font, metrics);
+        }
+        return metrics;
+    }
+
+    public PDFont getFont() {
+        return _font;
+    }
+
+    /**
+     * Get the width of a string of text
+     * @param txt Text
+     * @param fontSize Font size in pt
+     * @return Width in pt
+     * @throws IllegalArgumentException The font can't draw a character in the text
+     */
+    public float getTextWidth(String txt, int fontSize) {
+        float width = 0;
+        for (int i = 0; i < txt.length(); i++)
+            width += getAdvance(txt.charAt(i));
+        return width * (fontSize / 1000.0f);
+    }
+
+    /**
+     * Get the height of a line of text
+     * @param fontSize Font size in pt
+     * @return Height in pt
+     */
+    public float getTextHeight(int fontSize) {
+        return _height * (fontSize / 1000.0f);
+    }
+
+    /**
+     * Get the advance of a single glyph
+     * @param c Character
+     * @return Advance in font units
+     * @throws IllegalArgumentException The font can't draw the character
+     */
+    private float getAdvance(char c) {
+        if (c < _latin1.length) {
+            float width = _latin1[c];
+            if (!Float.isNaN(width))
+                return width;
+        } else {
+            Float width = _extra.get(c);
+            if (width != null)
+                return width;
+        }
+        throw new IllegalArgumentException(String.format("No glyph for U+%04X in font %s",
+                (int) c, _font.getName()));
+    }
+
+    /**
+     * Measure a character, filling in the font's width and encoding caches
+     * @param c Character
+     * @return Advance in font units (NaN if the font can't draw it)
+     */
+    private float measure(char c) {
+        String str = String.valueOf(c);
+        try {
+            _font.encode(str);
+            return _font.getStringWidth(str);
+        } catch (IllegalArgumentException | IOException e) {
+            return Float.NaN;
+        }
+    }
+}
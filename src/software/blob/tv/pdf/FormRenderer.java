@@ -0,0 +1,85 @@
+package software.blob.tv.pdf;
+
+import software.blob.tv.Config;
+import software.blob.tv.util.Log;
+import software.blob.tv.util.Metrics;
+
+import java.io.File;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+/**
+ * Renders schedule forms on a bounded thread pool
+ * Each form is drawn into its own document; the logo and font metrics are shared
+ * by every form (see {@link FormResources})
+ */
+public class FormRenderer {
+
+    private static final String TAG = "FormRenderer";
+
+    private final ExecutorService _pool;
+    private final List<Future<File>> _tasks = new ArrayList<>();
+
+    /**
+     * Create a renderer with "FORM_THREADS" threads (default: number of CPUs)
+     */
+    public FormRenderer() {
+        this(Config.getInt("FORM_THREADS", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Create a renderer
+     * @param threads Number of forms to render at the same time
+     */
+    public FormRenderer(int threads) {
+        _pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    /**
+     * Queue a form to be rendered (may be called from any thread)
+     * @param form Schedule form
+     */
+    public synchronized void submit(ScheduleForm form) {
+        _tasks.add(_pool.submit(() -> {
+            try {
+                Metrics.setChannel(form.getChannelNumber());
+                return form.generate();
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to generate form for channel " + form.getChannelNumber(), e);
+                return null;
+            } finally {
+                Metrics.clearChannel();
+            }
+        }));
+    }
+
+    /**
+     * Wait for every queued form to finish rendering and shut down the pool
+     * @return Generated form files
+     */
+    public List<File> finish() {
+        List<Future<File>> tasks;
+        synchronized (this) {
+            _pool.shutdown();
+            tasks = new ArrayList<>(_tasks);
+        }
+        List<File> files = new ArrayList<>();
+        for (Future<File> task : tasks) {
+            try {
+                File file = task.get();
+                if (file != null)
+                    files.add(file);
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                break;
+            } catch (ExecutionException e) {
+                Log.e(TAG, "Failed to generate form", e.getCause());
+            }
+        }
+        return files;
+    }
+}
@@ -0,0 +1,60 @@
+package software.blob.tv.pdf;
+
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.font.PDType1Font;
+import org.apache.pdfbox.pdmodel.graphics.image.LosslessFactory;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import software.blob.tv.Config;
+import software.blob.tv.util.Log;
+
+import javax.imageio.ImageIO;
+import java.awt.image.BufferedImage;
+import java.io.File;
+import java.io.IOException;
+
+/**
+ * Resources shared by every schedule form
+ *
+ * The logo is decoded once and copied into each document, and the font is measured once
+ * (see {@link FontMetrics}) so forms can be drawn on multiple threads.
+ */
+final class FormResources {
+
+    private static final String TAG = "FormResources";
+
+    private static final FontMetrics METRICS = FontMetrics.get(PDType1Font.HELVETICA);
+
+    private static BufferedImage _logo;
+
+    private FormResources() {
+    }
+
+    /**
+     * Get the metrics of the font used by the forms
+     * @return Font metrics
+     */
+    static FontMetrics getMetrics() {
+        return METRICS;
+    }
+
+    /**
+     * Add the BlobTV logo to a document
+     * @param doc Document
+     * @return Logo image
+     * @throws IOException Failed to read the logo
+     */
+    static PDImageXObject createLogo(PDDocument doc) throws IOException {
+        return LosslessFactory.createFromImage(doc, getLogo());
+    }
+
+    private static synchronized BufferedImage getLogo() throws IOException {
+        if (_logo == null) {
+            File file = new File(Config.get("BTV_HOME"), "i/btv_full.png");
+            _logo = ImageIO.read(file);
+            if (_logo == null)
+                throw new IOException("Unsupported image format: " + file);
+            Log.d(TAG, "Loaded logo " + file);
+        }
+        return _logo;
+    }
+}
@@ -0,0 +1,97 @@
+package software.blob.tv.pdf;
+
+import org.apache.pdfbox.io.MemoryUsageSetting;
+import org.apache.pdfbox.pdmodel.PDDocument;
+import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
+import software.blob.tv.obj.Channel;
+import software.blob.tv.obj.ChannelInfo;
+import software.blob.tv.obj.LogoColors;
+import software.blob.tv.util.FileUtils;
+import software.blob.tv.util.Log;
+import software.blob.tv.util.Metrics;
+
+import java.io.Closeable;
+import java.io.File;
+import java.io.IOException;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * A single schedule guide covering every channel over several days
+ *
+ * Each channel's schedule form is drawn as a page of the guide, one day after another.
+ * The logo is added to the document once and every page refers to it, and the standard font
+ * is never embedded, so the guide doesn't repeat any resources. Page contents are written to
+ * a scratch file as each page is finished instead of being kept in memory.
+ */
+public class GuideForm implements Closeable {
+
+    private static final String TAG = "GuideForm";
+
+    private final PDDocument _doc;
+    private final PDImageXObject _logo;
+    private final LogoColors _colors;
+
+    /**
+     * Start a guide
+     * @param colors Logo colors (null to skip the color ribbons)
+     * @throws IOException Failed to create the document
+     */
+    public GuideForm(LogoColors colors) throws IOException {
+        _doc = new PDDocument(MemoryUsageSetting.setupTempFileOnly());
+        try {
+            _logo = FormResources.createLogo(_doc);
+        } catch (IOException e) {
+            _doc.close();
+            throw e;
+        }
+        _colors = colors;
+    }
+
+    /**
+     * Add a page for each channel generated for a day
+     * @param cInfos Channel info list (pages are in the same order)
+     * @param channels Generated channels mapped by number
+     * @param date Date the channels were generated for
+     * @throws IOException Failed to draw a page
+     */
+    public void addDay(ChannelInfo[] cInfos, Map<Integer, Channel> channels, Date date) throws IOException {
+        for (ChannelInfo c : cInfos) {
+            Channel chan = channels.get(c.number);
+            if (chan == null)
+                continue;
+            ScheduleForm form = new ScheduleForm(c, chan.playlist, chan.schedule, _colors, date);
+            if (form.isValid()) {
+                long start = System.nanoTime();
+                Metrics.setChannel(c.number);
+                form.drawPage(_doc, _logo);
+                Metrics.time("guide_page", start);
+                Metrics.clearChannel();
+            }
+        }
+    }
+
+    public int getPageCount() {
+        return _doc.getNumberOfPages();
+    }
+
+    /**
+     * Write the guide
+     * @param file Output file
+     * @return True if written successfully
+     */
+    public boolean save(File file) {
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs())
+            Log.e(TAG, "Failed to create output directory: " + dir);
+        if (!FileUtils.publishStream(file, _doc::save))
+            return false;
+        Log.d(TAG, "Generated " + getPageCount() + " page guide " + file);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        _doc.close();
+    }
+}
@@ -5,9 +5,7 @@ import java.awt.Color;
 import java.io.File;
 import java.io.IOException;
 import java.text.SimpleDateFormat;
-import java.util.ArrayList;
 import java.util.Date;
-import java.util.List;
 
 import com.google.gson.Gson;
 import org.apache.pdfbox.pdmodel.PDDocument;
@@ -15,13 +13,13 @@ import org.apache.pdfbox.pdmodel.PDPage;
 import org.apache.pdfbox.pdmodel.PDPageContentStream;
 import org.apache.pdfbox.pdmodel.common.PDRectangle;
 import org.apache.pdfbox.pdmodel.font.PDFont;
-import org.apache.pdfbox.pdmodel.font.PDType1Font;
 import org.apache.pdfbox.pdmodel.graphics.image.PDImageXObject;
 import software.blob.tv.Config;
 import software.blob.tv.obj.*;
 import software.blob.tv.Constants;
 import software.blob.tv.util.FileUtils;
 import software.blob.tv.util.Log;
+import software.blob.tv.util.Metrics;
 
 /**
  * Example to show filling form fields.
@@ -50,12 +48,26 @@ public final class ScheduleForm
     private final Schedule _schedule;
     private final ChannelInfo _chanInfo;
     private final LogoColors _colors;
+    private final Date _date;
 
-    public ScheduleForm(ChannelInfo chanInfo, Playlist playlist, Schedule schedule, LogoColors colors) {
+    /**
+     * Create a schedule form
+     * @param chanInfo Channel info
+     * @param playlist Generated playlist
+     * @param schedule Schedule used to generate the playlist
+     * @param colors Logo colors (null to skip the color ribbons)
+     * @param date Date the playlist airs on
+     */
+    public ScheduleForm(ChannelInfo chanInfo, Playlist playlist, Schedule schedule, LogoColors colors, Date date) {
         _chanInfo = chanInfo;
         _playlist = playlist;
         _colors = colors;
         _schedule = schedule;
+        _date = date;
+    }
+
+    public ScheduleForm(ChannelInfo chanInfo, Playlist playlist, Schedule schedule, LogoColors colors) {
+        this(chanInfo, playlist, schedule, colors, new Date());
     }
 
     public ScheduleForm(ChannelInfo chanInfo, LogoColors colors) {
@@ -70,27 +82,61 @@ public final class ScheduleForm
         }
     }
 
+    public int getChannelNumber() {
+        return _chanInfo != null ? _chanInfo.number : 0;
+    }
+
     public File generate() throws IOException {
-        if (_chanInfo == null || _playlist == null || _schedule == null)
+        if (!isValid())
             return null;
 
+        long start = System.nanoTime();
+        PDDocument doc = new PDDocument();
+        drawPage(doc, FormResources.createLogo(doc));
+
+        // Save and close the filled out form
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd");
+        File outDir = Config.getFile("DL_HOME", "channel_" + _chanInfo.number);
+        if (!outDir.exists() && !outDir.mkdirs())
+            Log.e(TAG, "Failed to create output directory: " + outDir);
+        File outFile = new File(outDir, "Schedule_CH"
+                + _chanInfo.number + "_" + sdf.format(_date) + ".pdf");
+        doc.save(outFile);
+        doc.close();
+        Metrics.time("form", start);
+        Log.d(TAG, "Generated schedule form for channel " + _chanInfo.number);
+        return outFile;
+    }
+
+    /**
+     * Check if there's enough information to draw the form
+     * @return True if the form can be drawn
+     */
+    public boolean isValid() {
+        return _chanInfo != null && _playlist != null && _schedule != null;
+    }
+
+    /**
+     * Draw the form as a new page at the end of a document
+     * @param doc Document
+     * @param logo BlobTV logo (already added to the document)
+     * @throws IOException Failed to draw
+     */
+    void drawPage(PDDocument doc, PDImageXObject logo) throws IOException {
         // Determine page size
-        PDFont font = PDType1Font.HELVETICA;
-        //float rowWidth = fontDp(font.getStringWidth("test"), TBL_FONT_SIZE);
-        float realTextHeight = fontDp(font.getFontDescriptor()
-                .getFontBoundingBox().getHeight(), TBL_FS);
+        FontMetrics metrics = FormResources.getMetrics();
+        PDFont font = metrics.getFont();
+        //float rowWidth = metrics.getTextWidth("test", TBL_FONT_SIZE);
+        float realTextHeight = metrics.getTextHeight(TBL_FS);
         float tableHeight = TBL_FS * 96 + (_schedule.size() * 2 * TBL_PD); // row height * max # of slots
         float pageHeight = tableHeight + TBL_Y + MARGIN;
         float tableX = MARGIN, tableY = pageHeight - TBL_Y;
 
-        // Create document
-        PDDocument doc = new PDDocument();
+        // Create page
         PDRectangle pageRect = new PDRectangle(0, 0, PAGE_WIDTH, pageHeight);
         PDPage page = new PDPage(pageRect);
         doc.addPage(page);
 
-        PDImageXObject logo = PDImageXObject.createFromFile(Config.get("BTV_HOME") + "/i/btv_full.png", doc);
-
         PDPageContentStream stream = new PDPageContentStream(doc, page,
                 PDPageContentStream.AppendMode.APPEND, false);
 
@@ -103,16 +149,14 @@ public final class ScheduleForm
         stream.drawImage(logo, 26.64f, pageHeight - 75f - MARGIN, 102.96f, 102.96f);
 
         // Information
-        Date now = new Date();
         stream.setFont(font, INFO_FONT_SIZE);
         stream.setNonStrokingColor(Color.WHITE);
         SimpleDateFormat sdf = new SimpleDateFormat("EEEE, MMMM d, yyyy");
-        String[] info = new String[] {"Schedule for Channel " + _chanInfo.number, sdf.format(now)};
+        String[] info = new String[] {"Schedule for Channel " + _chanInfo.number, sdf.format(_date)};
 
         for (int i = 0; i < info.length; i++) {
-            float infoWidth = getTextWidth(font, info[i], INFO_FONT_SIZE);
-            float infoHeight = fontDp(font.getFontDescriptor()
-                    .getFontBoundingBox().getHeight(), INFO_FONT_SIZE);
+            float infoWidth = metrics.getTextWidth(info[i], INFO_FONT_SIZE);
+            float infoHeight = metrics.getTextHeight(INFO_FONT_SIZE);
             drawText(stream, info[i], PAGE_WIDTH - MARGIN - infoWidth,
                     pageHeight - (MARGIN + 40f + (i * infoHeight)));
         }
@@ -163,15 +207,15 @@ public final class ScheduleForm
                 }
 
                 // Time slot
-                drawTableLine(stream, ss.getFormattedTime(), font, rowY,
+                drawTableLine(stream, ss.getFormattedTime(), metrics, rowY,
                         rowHeight, tableX, TBL_COL1_WIDTH, 1);
 
                 // Show name
-                drawTableLine(stream, ss.Show, font, rowY, rowHeight,
+                drawTableLine(stream, ss.Show, metrics, rowY, rowHeight,
                         TBL_CSEP1, TBL_COL2_WIDTH, lineCount);
 
                 // Episode name
-                drawTableLine(stream, ss.getEpisodeString(), font, rowY, rowHeight,
+                drawTableLine(stream, ss.getEpisodeString(), metrics, rowY, rowHeight,
                         TBL_CSEP2, TBL_COL3_WIDTH, lineCount);
 
                 // Row separator
@@ -183,35 +227,15 @@ public final class ScheduleForm
             }
         }
         stream.close();
-
-        // Save and close the filled out form
-        sdf = new SimpleDateFormat("yyyy-MM-dd");
-        File outDir = Config.getFile("DL_HOME", "channel_" + _chanInfo.number);
-        if (!outDir.exists() && !outDir.mkdirs())
-            Log.e(TAG, "Failed to create output directory: " + outDir);
-        File outFile = new File(outDir, "Schedule_CH"
-                + _chanInfo.number + "_" + sdf.format(now) + ".pdf");
-        doc.save(outFile);
-        doc.close();
-        Log.d(TAG, "Generated schedule form for channel " + _chanInfo.number);
-        return outFile;
     }
 
     public static void main(String[] args) throws IOException {
         ChannelInfo[] channels = ChannelInfo.parseChannelList(Config.getFile("CHANNEL_INFO"));
         LogoColors colors = LogoColors.load(Config.getFile("LOGO_COLORS"));
-        for (ChannelInfo ci : channels) {
-            ScheduleForm form = new ScheduleForm(ci, colors);
-            form.generate();
-        }
-    }
-
-    private static float fontDp(float size, int fontSize) {
-        return size * (fontSize / 1000.0f);
-    }
-
-    private static float getTextWidth(PDFont font, String txt, int fontSize) throws IOException {
-        return fontDp(font.getStringWidth(txt), fontSize);
+        FormRenderer renderer = new FormRenderer();
+        for (ChannelInfo ci : channels)
+            renderer.submit(new ScheduleForm(ci, colors));
+        renderer.finish();
     }
 
     private static void drawText(PDPageContentStream stream,
@@ -226,7 +250,7 @@ public final class ScheduleForm
      * Convenience method for drawing line-wrapped text in a table cell
      * @param stream Content stream
      * @param txt Text to draw
-     * @param font Font to draw with
+     * @param metrics Metrics of the font to draw with
      * @param rowY Bottom bound of row
      * @param rowHeight Height of row
      * @param colX Left bound of column
@@ -235,70 +259,26 @@ public final class ScheduleForm
      * @throws IOException Failed to set font
      */
     private static void drawTableLine(PDPageContentStream stream, String txt,
-                               PDFont font, float rowY, float rowHeight, float colX,
+                               FontMetrics metrics, float rowY, float rowHeight, float colX,
                                float colWidth, int lineCount) throws IOException {
         float col2Wrap = colWidth - TBL_PD * 2;
         if (lineCount > 1) {
             // Wrap text
-            String[] lines = wrapText(font, txt, TBL_FS, col2Wrap);
-            int minLines = Math.min(lines.length, lineCount);
+            CellLayout layout = CellLayout.get(metrics, txt, TBL_FS, col2Wrap, true);
+            int minLines = Math.min(layout.lines.length, lineCount);
             float baseline = rowY + (rowHeight - minLines * TBL_FS) / 2 + TBL_PDV;
             for (int l = 0; l < minLines; l++) {
-                String line = lines[l];
-                float lineWidth = getTextWidth(font, line, TBL_FS);
-                drawText(stream, line, colX + (colWidth - lineWidth) / 2f,
+                drawText(stream, layout.lines[l], colX + (colWidth - layout.widths[l]) / 2f,
                         baseline + (minLines - l - 1) * TBL_FS);
             }
         } else {
             // Shrink text
-            float lineWidth = getTextWidth(font, txt, TBL_FS);
-            int fontSize = TBL_FS;
-            if (lineWidth > col2Wrap) {
-                fontSize = (int) (col2Wrap * (TBL_FS / lineWidth));
-                lineWidth = col2Wrap;
-            }
-            stream.setFont(font, fontSize);
-            drawText(stream, txt, colX + (colWidth - lineWidth) / 2f,
-                    rowY + (rowHeight - fontSize) / 2 + TBL_PDV);
+            CellLayout layout = CellLayout.get(metrics, txt, TBL_FS, col2Wrap, false);
+            PDFont font = metrics.getFont();
+            stream.setFont(font, layout.fontSize);
+            drawText(stream, txt, colX + (colWidth - layout.widths[0]) / 2f,
+                    rowY + (rowHeight - layout.fontSize) / 2 + TBL_PDV);
             stream.setFont(font, TBL_FS);
         }
     }
-
-    /**
-     * Break text into wrapped lines based on font parameters
-     * @param font Font to use
-     * @param txt Text to wrap
-     * @param fontSize Size of font in pt
-     * @param maxWidth Max width for wrapping
-     * @return Each line of text
-     * @throws IOException Failed to get text width
-     */
-    private static String[] wrapText(PDFont font, String txt,
-                                     int fontSize, float maxWidth) throws IOException {
-        List<String> lines = new ArrayList<>();
-        String[] words = txt.split(" ");
-        StringBuilder sb = new StringBuilder();
-        int i = 0;
-        float totalWidth = 0;
-        float spaceWidth = getTextWidth(font, " ", fontSize);
-        for (String s : words) {
-            float width = getTextWidth(font, s, fontSize);
-            totalWidth += width;
-            if (totalWidth > maxWidth) {
-                if (!sb.toString().isEmpty())
-                    lines.add(sb.toString());
-                sb = new StringBuilder();
-                totalWidth = 0;
-            }
-            sb.append(s);
-            if (i < words.length - 1) {
-                sb.append(" ");
-                totalWidth += spaceWidth;
-            }
-            i++;
-        }
-        if (!sb.toString().isEmpty())
-            lines.add(sb.toString());
-        return lines.toArray(new String[0]);
-    }
 }
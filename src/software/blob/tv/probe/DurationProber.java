@@ -0,0 +1,252 @@
+package software.blob.tv.probe;
+
+import com.google.gson.stream.JsonWriter;
+import software.blob.tv.Config;
+import software.blob.tv.util.Log;
+
+import java.io.*;
+import java.nio.charset.StandardCharsets;
+import java.util.*;
+import java.util.concurrent.*;
+
+/**
+ * Java replacement for scripts/durations.sh
+ * Probes every video in a show directory and writes the durations and stream starts
+ * ("DUR_JS" and "STARTS_JS") read by {@link software.blob.tv.obj.Playlist}
+ */
+public class DurationProber {
+
+    private static final String TAG = "DurationProber";
+
+    public static final FileFilter MP4_FILTER = f -> f.isFile() && f.getName().endsWith(".mp4");
+
+    private final ExecutorService _pool;
+
+    /**
+     * Create a prober
+     * @param threads Number of videos to probe at the same time
+     */
+    public DurationProber(int threads) {
+        _pool = Executors.newFixedThreadPool(Math.max(1, threads));
+    }
+
+    public DurationProber() {
+        this(Config.getInt("PROBE_THREADS", Runtime.getRuntime().availableProcessors()));
+    }
+
+    /**
+     * Probe all videos in a set of show directories
+     * All videos are queued up front so small directories don't leave threads idle
+     * @param dirs Show directories
+     * @return Number of directories written
+     */
+    public int probeDirectories(List<File> dirs) {
+        Map<File, Map<String, Future<Mp4Probe.Result>>> pending = new LinkedHashMap<>();
+        for (File dir : dirs) {
+            File[] vids = dir.listFiles(MP4_FILTER);
+            if (vids == null)
+                continue;
+            Map<String, Future<Mp4Probe.Result>> results = new TreeMap<>();
+            for (File vid : vids)
+                results.put(getName(vid), probeAsync(vid));
+            pending.put(dir, results);
+        }
+
+        int written = 0;
+        for (Map.Entry<File, Map<String, Future<Mp4Probe.Result>>> e : pending.entrySet()) {
+            Log.d(TAG, "Scanning starts and durations for " + e.getKey().getName());
+            Map<String, Mp4Probe.Result> results = new TreeMap<>();
+            for (Map.Entry<String, Future<Mp4Probe.Result>> r : e.getValue().entrySet()) {
+                Mp4Probe.Result result = await(r.getValue());
+                if (result != null)
+                    results.put(r.getKey(), result);
+            }
+            if (write(e.getKey(), results))
+                written++;
+        }
+        return written;
+    }
+
+    /**
+     * Incrementally refresh a set of show directories
+     * Only new or modified videos (by size and modification time) are probed, and deleted videos
+     * are dropped. The durations and stream starts are only rewritten if something changed.
+     * @param dirs Show directories
+     * @return Directories that changed
+     */
+    public List<File> refreshDirectories(List<File> dirs) {
+        Map<File, Map<String, Future<Mp4Probe.Result>>> pending = new LinkedHashMap<>();
+        Map<File, ProbeManifest> manifests = new HashMap<>();
+        Map<File, Boolean> changed = new HashMap<>();
+        for (File dir : dirs) {
+            File[] vids = dir.listFiles(MP4_FILTER);
+            if (vids == null)
+                continue;
+            ProbeManifest manifest = new ProbeManifest(dir);
+            if (vids.length == 0 && !manifest.exists())
+                continue;
+            Map<String, ProbeManifest.Entry> entries = manifest.getEntries();
+            Map<String, File> current = new HashMap<>();
+            Map<String, Future<Mp4Probe.Result>> results = new TreeMap<>();
+            for (File vid : vids) {
+                String name = getName(vid);
+                current.put(name, vid);
+                ProbeManifest.Entry entry = entries.get(name);
+                if (entry == null || !entry.matches(vid))
+                    results.put(name, probeAsync(vid));
+            }
+
+            // Drop deleted videos
+            boolean removed = entries.keySet().retainAll(current.keySet());
+            boolean missing = !manifest.exists()
+                    || !new File(dir, Config.get("DUR_JS")).exists()
+                    || !new File(dir, Config.get("STARTS_JS")).exists();
+
+            manifests.put(dir, manifest);
+            changed.put(dir, removed || missing);
+            pending.put(dir, results);
+        }
+
+        List<File> ret = new ArrayList<>();
+        for (Map.Entry<File, Map<String, Future<Mp4Probe.Result>>> e : pending.entrySet()) {
+            File dir = e.getKey();
+            ProbeManifest manifest = manifests.get(dir);
+            Map<String, ProbeManifest.Entry> entries = manifest.getEntries();
+            boolean dirChanged = changed.get(dir);
+            for (Map.Entry<String, Future<Mp4Probe.Result>> r : e.getValue().entrySet()) {
+                String name = r.getKey();
+                Mp4Probe.Result result = await(r.getValue());
+                if (result == null) {
+                    // Failed to probe - drop it like durations.sh would
+                    dirChanged |= entries.remove(name) != null;
+                    continue;
+                }
+                ProbeManifest.Entry entry = new ProbeManifest.Entry(
+                        new File(dir, name + ".mp4"), result);
+                ProbeManifest.Entry old = entries.put(name, entry);
+                if (old == null || old.duration != entry.duration || old.start != entry.start)
+                    dirChanged = true;
+            }
+
+            if (!dirChanged) {
+                // Only the sizes or modification times changed
+                if (!e.getValue().isEmpty())
+                    manifest.save();
+                continue;
+            }
+
+            Log.d(TAG, "Updating starts and durations for " + dir.getName());
+            Map<String, Mp4Probe.Result> results = new TreeMap<>();
+            for (Map.Entry<String, ProbeManifest.Entry> entry : entries.entrySet())
+                results.put(entry.getKey(), entry.getValue().toResult());
+
+            // The manifest is only saved once the results are written, so a failed write is retried
+            if (write(dir, results)) {
+                manifest.save();
+                ret.add(dir);
+            }
+        }
+        return ret;
+    }
+
+    /**
+     * Queue a video to be probed
+     * @param vid Video file
+     * @return Future result (null if the video couldn't be probed)
+     */
+    public Future<Mp4Probe.Result> probeAsync(File vid) {
+        return _pool.submit(() -> {
+            try {
+                return Mp4Probe.probe(vid);
+            } catch (IOException e) {
+                Log.e(TAG, "Failed to probe " + vid + ": " + e.getMessage());
+            }
+            return null;
+        });
+    }
+
+    public void shutdown() {
+        _pool.shutdown();
+    }
+
+    /**
+     * Write the durations and stream starts for a show directory
+     * @param dir Show directory
+     * @param results Probe results mapped by video name (without extension)
+     * @return True if both files were written
+     */
+    public static boolean write(File dir, Map<String, Mp4Probe.Result> results) {
+        Map<String, Double> durs = new TreeMap<>(), starts = new TreeMap<>();
+        for (Map.Entry<String, Mp4Probe.Result> e : results.entrySet()) {
+            durs.put(e.getKey(), e.getValue().duration);
+            starts.put(e.getKey(), e.getValue().streamStart);
+        }
+        return writeValues(new File(dir, Config.get("DUR_JS")), durs)
+                && writeValues(new File(dir, Config.get("STARTS_JS")), starts);
+    }
+
+    /**
+     * Write a JSON object of video names to values (same layout as durations.sh)
+     * @param file Output file
+     * @param values Values mapped by video name
+     * @return True if written successfully
+     */
+    private static boolean writeValues(File file, Map<String, Double> values) {
+        try (JsonWriter jw = new JsonWriter(new BufferedWriter(new OutputStreamWriter(
+                new FileOutputStream(file), StandardCharsets.UTF_8)))) {
+            jw.setIndent("\t");
+            jw.beginObject();
+            for (Map.Entry<String, Double> e : values.entrySet())
+                jw.name(e.getKey()).value(e.getValue());
+            jw.endObject();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + file, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Find show directories using the same filter as durations.sh
+     * @param filter Directory prefix (i.e. "/home/vc/BlobTV/shows/" or "/home/vc/BlobTV/shows/Dil")
+     * @return Matching directories
+     */
+    public static List<File> findDirectories(String filter) {
+        File parent;
+        String prefix;
+        if (filter.endsWith("/") || filter.endsWith(File.separator)) {
+            parent = new File(filter);
+            prefix = "";
+        } else {
+            File f = new File(filter);
+            parent = f.getParentFile();
+            prefix = f.getName();
+        }
+        List<File> dirs = new ArrayList<>();
+        File[] files = parent != null ? parent.listFiles(File::isDirectory) : null;
+        if (files != null) {
+            for (File dir : files) {
+                if (dir.getName().startsWith(prefix))
+                    dirs.add(dir);
+            }
+        }
+        Collections.sort(dirs);
+        return dirs;
+    }
+
+    static String getName(File vid) {
+        String name = vid.getName();
+        return name.substring(0, name.length() - ".mp4".length());
+    }
+
+    static <T> T await(Future<T> future) {
+        try {
+            return future.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (ExecutionException e) {
+            Log.e(TAG, "Probe failed", e.getCause());
+        }
+        return null;
+    }
+}
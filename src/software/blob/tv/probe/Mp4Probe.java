@@ -0,0 +1,229 @@
+package software.blob.tv.probe;
+
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Reads the duration and stream start of an MP4 file directly from its boxes
+ *
+ * Only the box headers and the moov/mvhd/trak/tkhd/edts/elst/mdia/mdhd/hdlr boxes are read
+ * (using positional reads), so probing doesn't depend on the size of the media data.
+ *
+ * Duration - The movie header duration (falls back to the longest track)
+ * Stream start - The earliest audio or video track start, where a track start is the length of any
+ * leading empty edits minus the media time of the first edit (same as the "start" reported by ffmpeg
+ * for files without composition offsets on the first sample)
+ */
+public class Mp4Probe {
+
+    private static final int HEADER_SIZE = 8;
+
+    /**
+     * Probe results
+     */
+    public static class Result {
+        // Duration of the video in seconds
+        public final double duration;
+
+        // Start of the earliest audio/video stream in seconds
+        public final double streamStart;
+
+        public Result(double duration, double streamStart) {
+            this.duration = duration;
+            this.streamStart = streamStart;
+        }
+
+        @Override
+        public String toString() {
+            return "duration: " + duration + ", start: " + streamStart;
+        }
+    }
+
+    private final FileChannel _fc;
+    private long _movieTimescale, _movieDuration, _maxTrackDuration;
+    private double _start = Double.MAX_VALUE;
+
+    private Mp4Probe(FileChannel fc) {
+        _fc = fc;
+    }
+
+    /**
+     * Probe an MP4 file
+     * @param file MP4 file
+     * @return Probe results
+     * @throws IOException Failed to read the file or the file is not a valid MP4
+     */
+    public static Result probe(File file) throws IOException {
+        try (FileChannel fc = FileChannel.open(file.toPath(), StandardOpenOption.READ)) {
+            return probe(fc);
+        }
+    }
+
+    /**
+     * Probe an MP4 file
+     * Only positional reads are used, so the channel position is left untouched
+     * @param fc Channel to read from
+     * @return Probe results
+     * @throws IOException Failed to read the channel or the data is not a valid MP4
+     */
+    public static Result probe(FileChannel fc) throws IOException {
+        Mp4Probe probe = new Mp4Probe(fc);
+        long moov = probe.findBox(0, fc.size(), "moov");
+        if (moov < 0)
+            throw new IOException("Missing moov box");
+        probe.readMoov(moov);
+        if (probe._movieTimescale <= 0)
+            throw new IOException("Missing or invalid mvhd box");
+        long duration = probe._movieDuration > 0 ? probe._movieDuration : probe._maxTrackDuration;
+        double start = probe._start != Double.MAX_VALUE ? probe._start : 0;
+        return new Result((double) duration / probe._movieTimescale, start);
+    }
+
+    private void readMoov(long moov) throws IOException {
+        long end = boxEnd(moov);
+        long pos = contentStart(moov);
+        while (pos + HEADER_SIZE <= end) {
+            String type = boxType(pos);
+            if (type.equals("mvhd"))
+                readMvhd(pos);
+            else if (type.equals("trak"))
+                readTrak(pos);
+            pos = boxEnd(pos);
+        }
+    }
+
+    private void readMvhd(long box) throws IOException {
+        long pos = contentStart(box);
+        int version = read(pos, 1).get() & 0xFF;
+        if (version == 1) {
+            ByteBuffer buf = read(pos + 4 + 16, 12);
+            _movieTimescale = buf.getInt() & 0xFFFFFFFFL;
+            _movieDuration = buf.getLong();
+        } else {
+            ByteBuffer buf = read(pos + 4 + 8, 8);
+            _movieTimescale = buf.getInt() & 0xFFFFFFFFL;
+            _movieDuration = buf.getInt() & 0xFFFFFFFFL;
+        }
+    }
+
+    private void readTrak(long trak) throws IOException {
+        long end = boxEnd(trak);
+        long tkhd = findBox(contentStart(trak), end, "tkhd");
+        long edts = findBox(contentStart(trak), end, "edts");
+        long mdia = findBox(contentStart(trak), end, "mdia");
+
+        // Track duration (in the movie timescale)
+        if (tkhd >= 0) {
+            long pos = contentStart(tkhd);
+            int version = read(pos, 1).get() & 0xFF;
+            long duration = version == 1 ? read(pos + 4 + 16 + 8, 8).getLong()
+                    : read(pos + 4 + 8 + 8, 4).getInt() & 0xFFFFFFFFL;
+            if (duration != 0xFFFFFFFFL && duration != -1)
+                _maxTrackDuration = Math.max(_maxTrackDuration, duration);
+        }
+
+        // Only audio and video tracks count towards the stream start
+        long mediaTimescale = 0;
+        if (mdia >= 0) {
+            long mdEnd = boxEnd(mdia);
+            long hdlr = findBox(contentStart(mdia), mdEnd, "hdlr");
+            if (hdlr >= 0) {
+                String handler = fourCC(read(contentStart(hdlr) + 8, 4));
+                if (!handler.equals("vide") && !handler.equals("soun"))
+                    return;
+            }
+            long mdhd = findBox(contentStart(mdia), mdEnd, "mdhd");
+            if (mdhd >= 0) {
+                long pos = contentStart(mdhd);
+                int version = read(pos, 1).get() & 0xFF;
+                mediaTimescale = read(pos + 4 + (version == 1 ? 16 : 8), 4).getInt() & 0xFFFFFFFFL;
+            }
+        }
+
+        double start = 0;
+        long elst = edts >= 0 ? findBox(contentStart(edts), boxEnd(edts), "elst") : -1;
+        if (elst >= 0) {
+            long pos = contentStart(elst);
+            ByteBuffer head = read(pos, 8);
+            int version = head.get() & 0xFF;
+            long count = head.getInt(4) & 0xFFFFFFFFL;
+            int entrySize = version == 1 ? 20 : 12;
+            long emptyDuration = 0;
+            pos += 8;
+            for (long i = 0; i < count && pos + entrySize <= boxEnd(elst); i++, pos += entrySize) {
+                ByteBuffer entry = read(pos, entrySize);
+                long segDuration = version == 1 ? entry.getLong() : entry.getInt() & 0xFFFFFFFFL;
+                long mediaTime = version == 1 ? entry.getLong() : entry.getInt();
+                if (mediaTime == -1) {
+                    // Empty edit - delays the start of the track
+                    emptyDuration += segDuration;
+                    continue;
+                }
+                start = (double) emptyDuration / _movieTimescale;
+                if (mediaTimescale > 0)
+                    start -= (double) mediaTime / mediaTimescale;
+                break;
+            }
+        }
+        _start = Math.min(_start, start);
+    }
+
+    /**
+     * Find the first child box of a given type
+     * @param pos Position to start searching
+     * @param end End of the parent box
+     * @param type Box type
+     * @return Position of the box or -1 if not found
+     * @throws IOException Failed to read a box header
+     */
+    private long findBox(long pos, long end, String type) throws IOException {
+        while (pos + HEADER_SIZE <= end) {
+            if (boxType(pos).equals(type))
+                return pos;
+            pos = boxEnd(pos);
+        }
+        return -1;
+    }
+
+    private String boxType(long pos) throws IOException {
+        ByteBuffer buf = read(pos + 4, 4);
+        return fourCC(buf);
+    }
+
+    private long boxEnd(long pos) throws IOException {
+        long size = read(pos, 4).getInt() & 0xFFFFFFFFL;
+        if (size == 1)
+            size = read(pos + HEADER_SIZE, 8).getLong();
+        else if (size == 0)
+            return _fc.size(); // Box extends to the end of the file
+        if (size < HEADER_SIZE)
+            throw new IOException("Invalid box size " + size + " at " + pos);
+        return pos + size;
+    }
+
+    private long contentStart(long pos) throws IOException {
+        long size = read(pos, 4).getInt() & 0xFFFFFFFFL;
+        return pos + (size == 1 ? 16 : HEADER_SIZE);
+    }
+
+    private ByteBuffer read(long pos, int len) throws IOException {
+        ByteBuffer buf = ByteBuffer.allocate(len);
+        while (buf.hasRemaining()) {
+            if (_fc.read(buf, pos + buf.position()) < 0)
+                throw new EOFException("Unexpected end of file at " + (pos + buf.position()));
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private static String fourCC(ByteBuffer buf) {
+        char[] chars = new char[4];
+        for (int i = 0; i < 4; i++)
+            chars[i] = (char) (buf.get(i) & 0xFF);
+        return new String(chars);
+    }
+}
@@ -0,0 +1,95 @@
+package software.blob.tv.probe;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.reflect.TypeToken;
+import software.blob.tv.Config;
+import software.blob.tv.util.FileUtils;
+import software.blob.tv.util.Log;
+
+import java.io.File;
+import java.lang.reflect.Type;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Record of the last probe results for each video in a show directory ("PROBE_JS")
+ * Used to skip videos whose size and modification time haven't changed
+ */
+public class ProbeManifest {
+
+    private static final String TAG = "ProbeManifest";
+
+    private static final Type ENTRIES_TYPE = new TypeToken<TreeMap<String, Entry>>() {}.getType();
+
+    public static class Entry {
+        // Size of the video in bytes
+        public long size;
+
+        // Modification time of the video (milliseconds since epoch)
+        public long mtime;
+
+        // Probed duration and stream start in seconds
+        public double duration, start;
+
+        public Entry() {
+        }
+
+        public Entry(File vid, Mp4Probe.Result result) {
+            size = vid.length();
+            mtime = vid.lastModified();
+            duration = result.duration;
+            start = result.streamStart;
+        }
+
+        /**
+         * Check if this entry still matches a video file
+         * @param vid Video file
+         * @return True if the size and modification time are unchanged
+         */
+        public boolean matches(File vid) {
+            return size == vid.length() && mtime == vid.lastModified();
+        }
+
+        public Mp4Probe.Result toResult() {
+            return new Mp4Probe.Result(duration, start);
+        }
+    }
+
+    private final File _file;
+    private Map<String, Entry> _entries;
+
+    /**
+     * Load the manifest for a show directory (empty if it doesn't exist yet)
+     * @param dir Show directory
+     */
+    public ProbeManifest(File dir) {
+        _file = new File(dir, Config.get("PROBE_JS"));
+        if (FileUtils.readableFile(_file)) {
+            try {
+                _entries = new Gson().fromJson(FileUtils.loadJSON(_file), ENTRIES_TYPE);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to parse probe manifest " + _file, e);
+            }
+        }
+        if (_entries == null)
+            _entries = new TreeMap<>();
+    }
+
+    /**
+     * Get the entries in this manifest
+     * @return Entries mapped by video name (without extension)
+     */
+    public Map<String, Entry> getEntries() {
+        return _entries;
+    }
+
+    public boolean exists() {
+        return _file.exists();
+    }
+
+    public boolean save() {
+        Gson gson = new GsonBuilder().setPrettyPrinting().create();
+        return FileUtils.writeToFile(_file, gson.toJson(_entries, ENTRIES_TYPE));
+    }
+}
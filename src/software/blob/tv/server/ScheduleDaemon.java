@@ -0,0 +1,477 @@
+package software.blob.tv.server;
+
+import com.google.gson.Gson;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+import com.sun.net.httpserver.HttpExchange;
+import com.sun.net.httpserver.HttpServer;
+import software.blob.tv.CLInterface;
+import software.blob.tv.Config;
+import software.blob.tv.obj.*;
+import software.blob.tv.util.FileUtils;
+import software.blob.tv.util.Log;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.net.InetSocketAddress;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.text.SimpleDateFormat;
+import java.util.*;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * Long-running alternative to launching a generation from cron
+ *
+ * The channel list (including the commercial pools) and the show catalog stay loaded between
+ * generations. Every channel is regenerated at midnight, and the rest of the day is rebuilt when a
+ * schedule file or the channel list changes (checked every "DAEMON_POLL_SECS" seconds).
+ *
+ * The published playlists and schedules are kept in memory and served over HTTP ("DAEMON_HOST"
+ * and "DAEMON_PORT"):
+ * GET /channels - Channel list with the paths below
+ * GET /channels/[number]/playlist - Today's playlist (same JSON as the playlist file)
+ * GET /channels/[number]/schedule - Today's schedule
+ * GET /channels/[number]/now?time=[seconds]&count=[n] - Segment airing now (or at the given time)
+ *     and the next n segments (see {@link Guide})
+ * Responses (other than "now") have an ETag, so clients polling with If-None-Match only download changes.
+ */
+public class ScheduleDaemon {
+
+    private static final String TAG = "ScheduleDaemon";
+
+    private static final Pattern NOW_PATH = Pattern.compile("/channels/(-?\\d+)/now");
+
+    /**
+     * Published file contents
+     */
+    private static class Resource {
+        final byte[] data;
+        final String etag;
+
+        Resource(byte[] data) throws IOException {
+            this.data = data;
+            byte[] hash = FileUtils.newDigest().digest(data);
+            StringBuilder sb = new StringBuilder("\"");
+            for (int i = 0; i < 16; i++)
+                sb.append(String.format("%02x", hash[i]));
+            this.etag = sb.append('"').toString();
+        }
+    }
+
+    private final String _host;
+    private final int _port, _pollSecs;
+    private final ScheduledExecutorService _clock = Executors.newSingleThreadScheduledExecutor();
+    private final ExecutorService _requests = Executors.newFixedThreadPool(2);
+    private HttpServer _server;
+
+    // Only accessed on the clock thread
+    private ChannelInfo[] _infos;
+    private LogoColors _colors;
+    private String _day;
+    private Map<File, Long> _modTimes = new HashMap<>();
+
+    // Served content mapped by request path and playlist lookups mapped by channel number
+    // (replaced as a whole after each generation)
+    private volatile Map<String, Resource> _resources = Collections.emptyMap();
+    private volatile Map<Integer, Guide> _guides = Collections.emptyMap();
+
+    public ScheduleDaemon() {
+        _host = Config.get("DAEMON_HOST") != null ? Config.get("DAEMON_HOST") : "127.0.0.1";
+        _port = Config.getInt("DAEMON_PORT", 8090);
+        _pollSecs = Math.max(1, Config.getInt("DAEMON_POLL_SECS", 30));
+    }
+
+    /**
+     * Load (or generate) today's playlists and start serving them
+     * @return True if started
+     */
+    public boolean start() {
+        try {
+            _server = HttpServer.create(new InetSocketAddress(_host, _port), 0);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to listen on " + _host + ":" + _port, e);
+            return false;
+        }
+        _server.createContext("/", this::handle);
+        _server.setExecutor(_requests);
+        _server.start();
+        Runtime.getRuntime().addShutdownHook(new Thread(this::stop));
+        Log.d(TAG, "Listening on http://" + _host + ":" + _port);
+
+        _clock.execute(() -> run(this::init));
+        _clock.scheduleWithFixedDelay(() -> run(this::poll), _pollSecs, _pollSecs, TimeUnit.SECONDS);
+        scheduleMidnight();
+        return true;
+    }
+
+    public void stop() {
+        if (_server != null)
+            _server.stop(0);
+        _clock.shutdownNow();
+        _requests.shutdownNow();
+    }
+
+    /**
+     * Run a task on the clock thread without letting a failure cancel later runs
+     * @param task Task
+     */
+    private static void run(Runnable task) {
+        try {
+            task.run();
+        } catch (Exception e) {
+            Log.e(TAG, "Scheduler task failed", e);
+        }
+    }
+
+    /**
+     * Check for a new day right at midnight instead of waiting for the next poll
+     */
+    private void scheduleMidnight() {
+        Calendar cal = Calendar.getInstance();
+        cal.add(Calendar.DAY_OF_MONTH, 1);
+        cal.set(Calendar.HOUR_OF_DAY, 0);
+        cal.set(Calendar.MINUTE, 0);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        long delay = cal.getTimeInMillis() - System.currentTimeMillis();
+        _clock.schedule(() -> {
+            run(this::poll);
+            scheduleMidnight();
+        }, delay, TimeUnit.MILLISECONDS);
+    }
+
+    private void init() {
+        _day = today();
+        loadChannels();
+        // Keep today's playlists if they were already generated (i.e. after a restart)
+        if (!isGeneratedToday()) {
+            Log.d(TAG, "Generating playlists for " + _day);
+            generate();
+        }
+        refresh();
+    }
+
+    /**
+     * Regenerate at midnight or rebuild after a schedule change
+     */
+    private void poll() {
+        if (_infos == null)
+            return;
+        Date now = new Date();
+        if (!today().equals(_day)) {
+            _day = today();
+            for (ChannelInfo c : _infos)
+                c.updateSchedule(now);
+            Log.d(TAG, "Generating playlists for " + _day);
+            generate();
+            refresh();
+            return;
+        }
+
+        Map<File, Long> modTimes = getModTimes();
+        if (modTimes.equals(_modTimes))
+            return;
+        File channelsFile = Config.getFile("CHANNEL_INFO");
+        if (!Objects.equals(modTimes.get(channelsFile), _modTimes.get(channelsFile))) {
+            Log.d(TAG, "Channel list changed");
+            loadChannels();
+            rebuild(Collections.emptyList());
+        } else {
+            List<Integer> changed = new ArrayList<>();
+            for (ChannelInfo c : _infos) {
+                for (File f : c.getScheduleFiles(now)) {
+                    if (!Objects.equals(modTimes.get(f), _modTimes.get(f))) {
+                        Log.d(TAG, "Schedule changed: " + f.getName());
+                        c.updateSchedule(now);
+                        changed.add(c.number);
+                        break;
+                    }
+                }
+            }
+            if (!changed.isEmpty())
+                rebuild(changed);
+        }
+        refresh();
+    }
+
+    private void loadChannels() {
+        _infos = ChannelInfo.parseChannelList(Config.getFile("CHANNEL_INFO"));
+        _colors = LogoColors.load(Config.getFile("LOGO_COLORS"));
+    }
+
+    private void generate() {
+        boolean generated = CLInterface.genChannels(_infos, _colors);
+        ShowCache.save();
+        File marker = getGeneratedFile();
+        if (!generated) {
+            // Generate again after a restart instead of keeping the playlists that weren't replaced
+            Log.e(TAG, "Failed to generate every playlist for " + _day);
+            if (marker.exists() && !marker.delete())
+                Log.e(TAG, "Failed to delete " + marker);
+        } else if (!FileUtils.writeToFile(marker, _day)) {
+            Log.e(TAG, "Failed to write " + marker);
+        }
+    }
+
+    /**
+     * Rebuild the rest of today's playlists
+     * @param numbers Channel numbers to rebuild (empty = all channels)
+     */
+    private void rebuild(Collection<Integer> numbers) {
+        CLInterface.rebuildChannels(_infos, _colors, numbers);
+        ShowCache.save();
+    }
+
+    /**
+     * Check if today's playlists were generated by the daemon (i.e. before a restart)
+     * Playlist modification times can't be used since unchanged playlists aren't rewritten
+     * @return True if the last generation was today and every playlist exists
+     */
+    private boolean isGeneratedToday() {
+        File marker = getGeneratedFile();
+        if (!marker.isFile())
+            return false;
+        try {
+            String day = new String(Files.readAllBytes(marker.toPath()), StandardCharsets.UTF_8).trim();
+            if (!day.equals(_day))
+                return false;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + marker, e);
+            return false;
+        }
+        for (ChannelInfo c : _infos) {
+            if (c.playlist != null && !Config.getFile("CHANNEL_PLAYLISTS_DIR", c.playlist).isFile())
+                return false;
+        }
+        return true;
+    }
+
+    /**
+     * File holding the date of the last generation
+     * @return File in the playlists directory
+     */
+    private static File getGeneratedFile() {
+        return Config.getFile("CHANNEL_PLAYLISTS_DIR", ".generated");
+    }
+
+    /**
+     * Get the modification times of the files that trigger a rebuild
+     * Copy channel schedules are written by the generator, so they aren't included
+     * @return Modification times (0 if the file doesn't exist)
+     */
+    private Map<File, Long> getModTimes() {
+        Map<File, Long> ret = new HashMap<>();
+        File channelsFile = Config.getFile("CHANNEL_INFO");
+        ret.put(channelsFile, channelsFile.lastModified());
+        Date now = new Date();
+        for (ChannelInfo c : _infos) {
+            if (c.copyChannel != -1)
+                continue;
+            for (File f : c.getScheduleFiles(now))
+                ret.put(f, f.lastModified());
+        }
+        return ret;
+    }
+
+    /**
+     * Read the published playlists and schedules into memory
+     */
+    private void refresh() {
+        Map<String, Resource> resources = new HashMap<>();
+        Map<Integer, Guide> guides = new HashMap<>();
+        JsonArray channels = new JsonArray();
+        for (ChannelInfo c : _infos) {
+            String path = "/channels/" + c.number;
+            JsonObject jo = new JsonObject();
+            jo.addProperty("number", c.number);
+            jo.addProperty("name", c.name);
+            Resource playlist = null, schedule = null;
+            if (c.playlist != null)
+                playlist = load(resources, path + "/playlist", Config.getFile("CHANNEL_PLAYLISTS_DIR", c.playlist));
+            if (c.schedule != null && c.schedule.isFile())
+                schedule = load(resources, path + "/schedule", c.schedule);
+            if (playlist != null) {
+                jo.addProperty("playlist", path + "/playlist");
+                jo.addProperty("now", path + "/now");
+                guides.put(c.number, createGuide(playlist, schedule));
+            }
+            if (schedule != null)
+                jo.addProperty("schedule", path + "/schedule");
+            channels.add(jo);
+        }
+        try {
+            resources.put("/channels", new Resource(channels.toString().getBytes(StandardCharsets.UTF_8)));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to create channel list", e);
+        }
+        _resources = resources;
+        _guides = guides;
+        _modTimes = getModTimes();
+        Log.d(TAG, "Serving " + resources.size() + " files");
+    }
+
+    /**
+     * Read a published file into memory
+     * @param resources Resources to add to
+     * @param path Request path
+     * @param file File
+     * @return Loaded resource or null if the file couldn't be read
+     */
+    private static Resource load(Map<String, Resource> resources, String path, File file) {
+        if (!FileUtils.readableFile(file))
+            return null;
+        try {
+            Resource res = new Resource(Files.readAllBytes(file.toPath()));
+            resources.put(path, res);
+            return res;
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to read " + file, e);
+        }
+        return null;
+    }
+
+    /**
+     * Index a published playlist for "now playing" lookups
+     * @param playlist Playlist JSON
+     * @param schedule Schedule JSON (null if N/A)
+     * @return Guide
+     */
+    private static Guide createGuide(Resource playlist, Resource schedule) {
+        JsonParser parser = new JsonParser();
+        Playlist pl = Playlist.fromJson(parser.parse(
+                new String(playlist.data, StandardCharsets.UTF_8)).getAsJsonArray());
+        Schedule sched = null;
+        if (schedule != null) {
+            try {
+                sched = new Gson().fromJson(new String(schedule.data, StandardCharsets.UTF_8), Schedule.class);
+            } catch (Exception e) {
+                Log.e(TAG, "Failed to parse schedule", e);
+            }
+        }
+        return new Guide(pl, sched);
+    }
+
+    /**
+     * Answer a "now playing" request
+     * Query parameters: time (seconds since midnight, default: now) and count (upcoming segments, default: 3)
+     * @param ex Exchange
+     * @param guide Channel guide
+     * @throws IOException Failed to respond
+     */
+    private static void handleNow(HttpExchange ex, Guide guide) throws IOException {
+        Calendar cal = Calendar.getInstance();
+        double time = cal.get(Calendar.HOUR_OF_DAY) * 3600 + cal.get(Calendar.MINUTE) * 60
+                + cal.get(Calendar.SECOND) + cal.get(Calendar.MILLISECOND) / 1000d;
+        int count = 3;
+        String query = ex.getRequestURI().getQuery();
+        if (query != null) {
+            for (String param : query.split("&")) {
+                String[] kv = param.split("=", 2);
+                try {
+                    if (kv[0].equals("time") && kv.length > 1)
+                        time = Double.parseDouble(kv[1]);
+                    else if (kv[0].equals("count") && kv.length > 1)
+                        count = Math.max(0, Math.min(Integer.parseInt(kv[1]), guide.size()));
+                } catch (NumberFormatException e) {
+                    ex.sendResponseHeaders(400, -1);
+                    return;
+                }
+            }
+        }
+        byte[] data = guide.query(time, count).toJson().toString().getBytes(StandardCharsets.UTF_8);
+        ex.getResponseHeaders().set("Cache-Control", "no-store");
+        ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+        ex.sendResponseHeaders(200, data.length);
+        try (OutputStream os = ex.getResponseBody()) {
+            os.write(data);
+        }
+    }
+
+    private void handle(HttpExchange ex) throws IOException {
+        try {
+            String method = ex.getRequestMethod();
+            if (!method.equals("GET") && !method.equals("HEAD")) {
+                ex.sendResponseHeaders(405, -1);
+                return;
+            }
+            Map<String, Resource> resources = _resources;
+            if (resources.isEmpty()) {
+                // Still generating
+                ex.sendResponseHeaders(503, -1);
+                return;
+            }
+            String path = ex.getRequestURI().getPath();
+            if (path.length() > 1 && path.endsWith("/"))
+                path = path.substring(0, path.length() - 1);
+            Matcher m = NOW_PATH.matcher(path);
+            if (m.matches() && method.equals("GET")) {
+                Guide guide;
+                try {
+                    guide = _guides.get(Integer.parseInt(m.group(1)));
+                } catch (NumberFormatException e) {
+                    // Too many digits for a channel number
+                    guide = null;
+                }
+                if (guide != null)
+                    handleNow(ex, guide);
+                else
+                    ex.sendResponseHeaders(404, -1);
+                return;
+            }
+            Resource res = resources.get(path);
+            if (res == null) {
+                ex.sendResponseHeaders(404, -1);
+                return;
+            }
+
+            ex.getResponseHeaders().set("ETag", res.etag);
+            ex.getResponseHeaders().set("Cache-Control", "no-cache");
+            if (matches(ex.getRequestHeaders().getFirst("If-None-Match"), res.etag)) {
+                ex.sendResponseHeaders(304, -1);
+                return;
+            }
+            ex.getResponseHeaders().set("Content-Type", "application/json; charset=utf-8");
+            if (method.equals("HEAD")) {
+                ex.sendResponseHeaders(200, -1);
+                return;
+            }
+            ex.sendResponseHeaders(200, res.data.length);
+            try (OutputStream os = ex.getResponseBody()) {
+                os.write(res.data);
+            }
+        } finally {
+            ex.close();
+        }
+    }
+
+    /**
+     * Check an If-None-Match header against an ETag
+     * @param header Header value (null if not sent)
+     * @param etag ETag
+     * @return True if the client already has this version
+     */
+    private static boolean matches(String header, String etag) {
+        if (header == null)
+            return false;
+        for (String tag : header.split(",")) {
+            tag = tag.trim();
+            if (tag.startsWith("W/"))
+                tag = tag.substring(2);
+            if (tag.equals(etag) || tag.equals("*"))
+                return true;
+        }
+        return false;
+    }
+
+    private static String today() {
+        return new SimpleDateFormat("yyyy-MM-dd").format(new Date());
+    }
+}
@@ -0,0 +1,549 @@
+package software.blob.tv.synth;
+
+import com.google.gson.Gson;
+import com.google.gson.GsonBuilder;
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import software.blob.tv.Config;
+import software.blob.tv.obj.ShowInfo;
+import software.blob.tv.util.FileUtils;
+import software.blob.tv.util.Log;
+
+import javax.imageio.ImageIO;
+import java.awt.*;
+import java.awt.image.BufferedImage;
+import java.io.*;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Writes a complete synthetic BTV home directory for load and scale testing
+ *
+ * Shows - Each show has a season of episodes with durations, stream starts and info.js break points.
+ * Every 10th show runs two time slots, every 5th show (offset by 2) has separated episodes with
+ * episode sets, and every 4th show (offset by 1) has break bumpers.
+ * Commercials - Families of 1 to 6 spots from the same sponsor (i.e. "Beldradra Bank 2"), 10 to 60 seconds.
+ * Channels - Each channel cycles through a random lineup of shows. Every 10th channel copies the
+ * previous channel with a 3 hour offset and every 8th channel plays shorts instead of commercials.
+ *
+ * Videos are stub MP4 files (just a movie header), so "probe" reads back the same durations.
+ * The same settings and seed always generate the same library. The library gets its own config.txt
+ * (a copy of the current config with the paths pointing into the library).
+ */
+public class LibraryGenerator {
+
+    private static final String TAG = "LibraryGenerator";
+
+    private static final String[] ADJECTIVES = {
+            "Amazing", "Atomic", "Brave", "Cosmic", "Crazy", "Daring", "Electric", "Fantastic", "Flying",
+            "Galactic", "Haunted", "Invisible", "Jolly", "Lucky", "Magnificent", "Mighty", "Mysterious",
+            "Nervous", "Radical", "Secret", "Sneaky", "Super", "Tiny", "Wacky"
+    };
+
+    private static final String[] NOUNS = {
+            "Adventurers", "Aliens", "Bandits", "Cowboys", "Detectives", "Dinosaurs", "Ducks", "Explorers",
+            "Ghosts", "Heroes", "Inventors", "Knights", "Monkeys", "Ninjas", "Pirates", "Rangers", "Robots",
+            "Scientists", "Skaters", "Spies", "Squirrels", "Twins", "Vikings", "Wizards"
+    };
+
+    private static final String[] TITLE_WORDS = {
+            "Big", "Heist", "Return", "Night", "Lost", "Island", "Birthday", "Surprise", "Last", "Laugh",
+            "Space", "Race", "Haunted", "House", "Great", "Escape", "Time", "Machine", "Double", "Trouble",
+            "Mystery", "Meat", "Field", "Trip", "Pizza", "Party", "Snow", "Day"
+    };
+
+    private static final String[] SYLLABLES = {
+            "ka", "lo", "mi", "ra", "ven", "tor", "zu", "bel", "quin", "dra", "po", "sen"
+    };
+
+    private static final String[] PRODUCTS = {
+            "Cola", "Burgers", "Trucks", "Mattress", "Furniture", "Phones", "Shoes", "Detergent", "Cereal",
+            "Insurance", "Toys", "Pizza", "Airlines", "Bank", "Candy", "Video Games"
+    };
+
+    private static final double[] COMMERCIAL_DURS = { 10, 15, 15, 20, 30, 30, 30, 45, 60 };
+
+    private static final String[] MIDS = {
+            ShowInfo.Break.EP_B, ShowInfo.Break.EP_C, ShowInfo.Break.EP_D
+    };
+
+    // Library layout (replaces the paths in the current config)
+    private static final String[] PATH_KEYS = {
+            "DL_HOME", "downloads", "SHOW_DIR", "shows", "CHANNEL_INFO", "js_shared/channels/channels.js",
+            "CHANNEL_SCHEDS_DIR", "js_shared/scheds/", "CHANNEL_PLAYLISTS_DIR", "js/channels/",
+            "LOGO_COLORS", "js_shared/logo_colors.js", "SHOW_CACHE", "cache/shows.btvc"
+    };
+
+    private static final int DAY_MINS = 1440;
+
+    private final File _home;
+    private final Gson _gson = new GsonBuilder().setPrettyPrinting().disableHtmlEscaping().create();
+    private int _shows = 40, _episodes = 26, _commercials = 1000, _channels = 4, _slotMins = 30;
+    private long _seed = 1;
+    private Random _rand;
+    private String _durJs, _startsJs, _infoJs, _filtersJs;
+    private List<String> _showNames;
+    private long _videos;
+
+    /**
+     * Create a generator
+     * @param home Library directory (must be empty or not exist yet)
+     */
+    public LibraryGenerator(File home) {
+        _home = home.getAbsoluteFile();
+    }
+
+    public LibraryGenerator setShows(int shows) {
+        _shows = Math.max(1, shows);
+        return this;
+    }
+
+    /**
+     * Set the number of episodes per show (or episode sets for shows with separated episodes)
+     * @param episodes Number of episodes
+     */
+    public LibraryGenerator setEpisodes(int episodes) {
+        _episodes = Math.max(1, episodes);
+        return this;
+    }
+
+    public LibraryGenerator setCommercials(int commercials) {
+        _commercials = Math.max(1, commercials);
+        return this;
+    }
+
+    public LibraryGenerator setChannels(int channels) {
+        _channels = Math.max(1, channels);
+        return this;
+    }
+
+    /**
+     * Set the time slot size the shows are made for
+     * @param mins Slot size in minutes (15 to 720)
+     */
+    public LibraryGenerator setSlotSize(int mins) {
+        _slotMins = Math.max(15, Math.min(mins, DAY_MINS / 2));
+        return this;
+    }
+
+    public LibraryGenerator setSeed(long seed) {
+        _seed = seed;
+        return this;
+    }
+
+    /**
+     * Write the library
+     * @return True if written successfully
+     */
+    public boolean generate() {
+        String[] existing = _home.list();
+        if (existing != null && existing.length > 0) {
+            Log.e(TAG, "Library directory isn't empty: " + _home);
+            return false;
+        }
+        _rand = new Random(_seed);
+        _durJs = getName("DUR_JS", "durations.js");
+        _startsJs = getName("STARTS_JS", "starts.js");
+        _infoJs = getName("INFO_JS", "info.js");
+        _filtersJs = getName("FILTERS_JS", "filters.js");
+        _videos = 0;
+        long start = System.currentTimeMillis();
+        try {
+            for (String dir : new String[] {"downloads", "i", "cache", "js/channels", "js_shared/channels",
+                    "js_shared/scheds", "shows"})
+                mkdirs(new File(_home, dir));
+            writeConfig();
+            writeLogo();
+
+            File showDir = new File(_home, "shows");
+            _showNames = new ArrayList<>(_shows);
+            for (int s = 0; s < _shows; s++) {
+                _showNames.add(getShowName(s));
+                writeShow(new File(showDir, _showNames.get(s) + " (" + (1985 + s % 30) + ")"), s);
+            }
+            writeCommercials(new File(showDir, "Commercials"));
+            writeClips(new File(showDir, "Station IDs"), "Station ID ", 12, 5, 15);
+            writeClips(new File(showDir, "Shorts"), "Short ", Math.max(10, _shows / 4), 120, 420);
+            writeBumpers(new File(showDir, "Schedule Bumps"));
+            writeLogoColors();
+            writeChannels(new File(_home, "js_shared" + File.separator + "channels"));
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to generate library in " + _home, e);
+            return false;
+        }
+        Log.d(TAG, String.format("Generated %d shows, %d videos and %d channels in %s (%.1f seconds)",
+                _shows, _videos, _channels, _home, (System.currentTimeMillis() - start) / 1e3));
+        return true;
+    }
+
+    /**
+     * Copy the current config with the paths pointing into the library
+     */
+    private void writeConfig() throws IOException {
+        Map<String, String> settings = new LinkedHashMap<>();
+        settings.put("BTV_HOME", _home.getPath());
+        for (int i = 0; i < PATH_KEYS.length; i += 2)
+            settings.put(PATH_KEYS[i], "$BTV_HOME/" + PATH_KEYS[i + 1]);
+        settings.put("INFO_JS", _infoJs);
+        settings.put("DUR_JS", _durJs);
+        settings.put("STARTS_JS", _startsJs);
+        settings.put("FILTERS_JS", _filtersJs);
+
+        File template = new File("config.txt");
+        List<String> lines = template.isFile() ? Files.readAllLines(template.toPath(), StandardCharsets.UTF_8)
+                : new ArrayList<>();
+        Set<String> replaced = new HashSet<>();
+        for (int i = 0; i < lines.size(); i++) {
+            String line = lines.get(i);
+            int split = line.indexOf(" = ");
+            if (line.startsWith("#") || split == -1)
+                continue;
+            String key = line.substring(0, split);
+            if (settings.containsKey(key)) {
+                lines.set(i, key + " = " + settings.get(key));
+                replaced.add(key);
+            }
+        }
+
+        // Settings missing from the current config go first so the rest can refer to them
+        StringBuilder sb = new StringBuilder();
+        sb.append("# Synthetic library (seed ").append(_seed).append(")\n");
+        for (Map.Entry<String, String> e : settings.entrySet()) {
+            if (!replaced.contains(e.getKey()))
+                sb.append(e.getKey()).append(" = ").append(e.getValue()).append('\n');
+        }
+        for (String line : lines)
+            sb.append(line).append('\n');
+        write(new File(_home, "config.txt"), sb.toString());
+    }
+
+    /**
+     * Write a show directory
+     * @param dir Show directory
+     * @param s Show index
+     */
+    private void writeShow(File dir, int s) throws IOException {
+        mkdirs(dir);
+        boolean separated = s % 5 == 2;
+        double slotSecs = getShowSlotMins(s) * 60.0;
+        JsonObject durs = new JsonObject(), starts = new JsonObject(), info = new JsonObject();
+        JsonObject breaks = new JsonObject();
+        JsonArray epSets = new JsonArray();
+        for (int e = 0; e < _episodes; e++) {
+            String tag = "(S" + (e / 13 + 1) + "E" + (e % 13 + 1);
+            String title = getTitle();
+            if (separated) {
+                // Two parts that fit in a slot together
+                JsonArray set = new JsonArray();
+                for (char part = 'a'; part <= 'b'; part++) {
+                    String name = tag + part + ") " + title + " " + Character.toUpperCase(part);
+                    double dur = round(slotSecs * (0.35 + _rand.nextDouble() * 0.03));
+                    writeVideo(dir, name, dur, durs, starts);
+                    set.add(name);
+                }
+                epSets.add(set);
+            } else {
+                String name = tag + ") " + title;
+                double dur = round(slotSecs * (0.68 + _rand.nextDouble() * 0.1));
+                writeVideo(dir, name, dur, durs, starts);
+                breaks.add(name, getBreaks(dur));
+            }
+        }
+        if (separated) {
+            info.addProperty(ShowInfo.SEPARATED, true);
+            info.add(ShowInfo.EPISODES, epSets);
+        } else
+            info.add(ShowInfo.BREAKS, breaks);
+        writeJson(new File(dir, _durJs), durs);
+        writeJson(new File(dir, _startsJs), starts);
+        writeJson(new File(dir, _infoJs), info);
+
+        if (s % 4 == 1 && !separated)
+            writeClips(new File(dir, "Break Bumpers"), "Break Bumper ", 3, 3, 6);
+    }
+
+    /**
+     * Episode break points (see "Break" in the README)
+     * @param dur Episode duration
+     * @return Break points
+     */
+    private JsonObject getBreaks(double dur) {
+        JsonObject br = new JsonObject();
+        br.addProperty(ShowInfo.Break.INTRO, round(_rand.nextDouble() * 3));
+        for (int m = 0; m < MIDS.length; m++) {
+            double mid = dur * (m + 1) / (MIDS.length + 1);
+            br.addProperty(MIDS[m], round(mid + (_rand.nextDouble() - 0.5) * 30));
+        }
+        br.addProperty(ShowInfo.Break.CREDITS, round(dur - 30));
+        br.addProperty(ShowInfo.Break.END, round(dur - _rand.nextDouble() * 2));
+        return br;
+    }
+
+    private void writeCommercials(File dir) throws IOException {
+        mkdirs(dir);
+        JsonObject durs = new JsonObject(), starts = new JsonObject();
+        for (int c = 0, sponsor = 0; c < _commercials; sponsor++) {
+            String brand = getSponsorName(sponsor) + " " + PRODUCTS[_rand.nextInt(PRODUCTS.length)];
+            int spots = Math.min(1 + _rand.nextInt(6), _commercials - c);
+            for (int i = 1; i <= spots; i++, c++) {
+                double dur = COMMERCIAL_DURS[_rand.nextInt(COMMERCIAL_DURS.length)];
+                writeVideo(dir, brand + " " + i, round(dur + (_rand.nextDouble() - 0.5) * 0.4), durs, starts);
+            }
+        }
+        writeJson(new File(dir, _durJs), durs);
+        writeJson(new File(dir, _startsJs), starts);
+    }
+
+    /**
+     * Write a directory of short videos
+     * @param dir Directory
+     * @param prefix File name prefix
+     * @param count Number of videos
+     * @param minSecs Shortest duration
+     * @param maxSecs Longest duration
+     */
+    private void writeClips(File dir, String prefix, int count, double minSecs, double maxSecs)
+            throws IOException {
+        mkdirs(dir);
+        JsonObject durs = new JsonObject(), starts = new JsonObject();
+        for (int i = 1; i <= count; i++)
+            writeVideo(dir, prefix + i, round(minSecs + _rand.nextDouble() * (maxSecs - minSecs)), durs, starts);
+        writeJson(new File(dir, _durJs), durs);
+        writeJson(new File(dir, _startsJs), starts);
+    }
+
+    /**
+     * Schedule bumpers with the upcoming shows filled in by the slot builder
+     */
+    private void writeBumpers(File dir) throws IOException {
+        writeClips(dir, "Schedule Bumper ", 8, 8, 12);
+        JsonArray filters = new JsonArray();
+        JsonObject fade = new JsonObject();
+        fade.addProperty("name", "fade");
+        fade.addProperty("fadeInEnd", 0.5);
+        fade.addProperty("fadeOutStart", -0.5);
+        filters.add(fade);
+        filters.add(getTextFilter("Next: %show1%", 300, 32, 20));
+        filters.add(getTextFilter("Later: %show2% at %time2%", 400, 24, 30));
+        writeJson(new File(dir, _filtersJs), filters);
+    }
+
+    private JsonObject getTextFilter(String text, int y, int size, int wrap) {
+        JsonObject tf = new JsonObject();
+        tf.addProperty("name", "text");
+        tf.addProperty("text", text);
+        tf.addProperty("x", 40);
+        tf.addProperty("y", y);
+        tf.addProperty("color", "white");
+        JsonArray sizes = new JsonArray(), wraps = new JsonArray();
+        sizes.add(size);
+        sizes.add(size * 3 / 4);
+        wraps.add(wrap);
+        wraps.add(wrap * 4 / 3);
+        tf.addProperty("size", size);
+        tf.add("sizes", sizes);
+        tf.add("wraps", wraps);
+        return tf;
+    }
+
+    private void writeChannels(File dir) throws IOException {
+        JsonArray channels = new JsonArray();
+        for (int n = 1; n <= _channels; n++) {
+            JsonObject c = new JsonObject();
+            c.addProperty("Number", n);
+            c.addProperty("Name", "Channel " + n);
+            c.addProperty("Schedule", "channel_" + n + ".js");
+            c.addProperty("Playlist", "schedule_chan_" + n + ".js");
+            if (n % 10 == 0) {
+                // Copies get their schedule written when generated
+                c.addProperty("CopyChannel", n - 1);
+                c.addProperty("CopyChannelOffset", 3);
+            } else
+                writeJson(new File(dir, "channel_" + n + ".js"), getSchedule());
+            if (n % 8 == 0)
+                c.addProperty("Shorts", "Shorts");
+            else
+                c.addProperty("Commercials", "Commercials");
+            c.addProperty("IDs", "Station IDs");
+            c.addProperty("Bumpers", "Schedule Bumps");
+            channels.add(c);
+        }
+        writeJson(new File(dir, "channels.js"), channels);
+    }
+
+    /**
+     * Schedule that cycles through a random lineup of shows
+     * @return Schedule slots
+     */
+    private JsonArray getSchedule() {
+        List<Integer> lineup = new ArrayList<>();
+        int size = Math.min(_shows, 8 + _rand.nextInt(17));
+        while (lineup.size() < size) {
+            int s = _rand.nextInt(_shows);
+            if (!lineup.contains(s))
+                lineup.add(s);
+        }
+        // A regular length show to fill the end of the day
+        int filler = lineup.get(0);
+        for (int s = 0; s < _shows && getShowSlotMins(filler) != _slotMins; s++)
+            filler = s;
+
+        JsonArray sched = new JsonArray();
+        for (int t = 0, i = 0; t < DAY_MINS; i++) {
+            int s = lineup.get(i % lineup.size());
+            if (t + getShowSlotMins(s) > DAY_MINS)
+                s = filler;
+            JsonObject slot = new JsonObject();
+            slot.addProperty("TimeSlot", t);
+            slot.addProperty("Show", _showNames.get(s));
+            sched.add(slot);
+            t += getShowSlotMins(s);
+        }
+        return sched;
+    }
+
+    private void writeLogoColors() throws IOException {
+        JsonObject colors = new JsonObject();
+        for (String show : _showNames) {
+            JsonArray pair = new JsonArray();
+            pair.add(String.format("#%06X", _rand.nextInt(0x1000000)));
+            pair.add(String.format("#%06X", _rand.nextInt(0x1000000)));
+            colors.add(show, pair);
+        }
+        writeJson(new File(_home, "js_shared" + File.separator + "logo_colors.js"), colors);
+    }
+
+    /**
+     * Logo drawn on the schedule forms
+     */
+    private void writeLogo() throws IOException {
+        BufferedImage img = new BufferedImage(400, 120, BufferedImage.TYPE_INT_ARGB);
+        Graphics2D g = img.createGraphics();
+        g.setColor(Color.decode("#FFE000"));
+        g.fillRoundRect(0, 0, 400, 120, 40, 40);
+        g.setColor(Color.BLACK);
+        g.setFont(new Font(Font.SANS_SERIF, Font.BOLD, 72));
+        g.drawString("BTV", 120, 88);
+        g.dispose();
+        File logo = new File(_home, "i" + File.separator + "btv_full.png");
+        if (!ImageIO.write(img, "png", logo))
+            throw new IOException("Failed to write " + logo);
+    }
+
+    /**
+     * Write a stub video and record its duration and stream start
+     * @param dir Directory
+     * @param name Video name (without extension)
+     * @param dur Duration in seconds (rounded to milliseconds)
+     * @param durs Durations
+     * @param starts Stream starts
+     */
+    private void writeVideo(File dir, String name, double dur, JsonObject durs, JsonObject starts)
+            throws IOException {
+        try (OutputStream os = new FileOutputStream(new File(dir, name + ".mp4"))) {
+            os.write(getStubVideo(dur));
+        }
+        durs.addProperty(name, dur);
+        starts.addProperty(name, 0.0);
+        _videos++;
+    }
+
+    /**
+     * Smallest MP4 that {@link software.blob.tv.probe.Mp4Probe} reads: a file type box and a
+     * movie box containing only the movie header (millisecond timescale, no tracks)
+     * @param dur Duration in seconds
+     * @return File contents
+     */
+    private static byte[] getStubVideo(double dur) {
+        ByteBuffer buf = ByteBuffer.allocate(28 + 8 + 108);
+        buf.putInt(28).put(fourCC("ftyp")).put(fourCC("isom")).putInt(0x200)
+                .put(fourCC("isom")).put(fourCC("iso2")).put(fourCC("mp41"));
+        buf.putInt(8 + 108).put(fourCC("moov"));
+        buf.putInt(108).put(fourCC("mvhd"));
+        buf.putInt(0); // Version and flags
+        buf.putInt(0).putInt(0); // Creation and modification time
+        buf.putInt(1000).putInt((int) Math.round(dur * 1000));
+        buf.putInt(0x00010000).putShort((short) 0x0100); // Rate and volume
+        buf.position(buf.position() + 10); // Reserved
+        int[] matrix = { 0x00010000, 0, 0, 0, 0x00010000, 0, 0, 0, 0x40000000 };
+        for (int m : matrix)
+            buf.putInt(m);
+        buf.position(buf.position() + 24); // Pre-defined
+        buf.putInt(1); // Next track ID
+        return buf.array();
+    }
+
+    private static byte[] fourCC(String type) {
+        return type.getBytes(StandardCharsets.US_ASCII);
+    }
+
+    /**
+     * Time slot size of a show (every 10th show is twice as long)
+     * @param s Show index
+     * @return Slot size in minutes
+     */
+    private int getShowSlotMins(int s) {
+        return s % 10 == 9 ? _slotMins * 2 : _slotMins;
+    }
+
+    private static String getShowName(int s) {
+        int combos = ADJECTIVES.length * NOUNS.length;
+        // Every adjective and noun pair is used once before adding a number
+        int a = s % ADJECTIVES.length, n = (a + s / ADJECTIVES.length) % NOUNS.length;
+        String name = "The " + ADJECTIVES[a] + " " + NOUNS[n];
+        return s < combos ? name : name + " " + (s / combos + 1);
+    }
+
+    private static String getSponsorName(int i) {
+        // Unique single word so each sponsor is its own commercial family
+        StringBuilder sb = new StringBuilder();
+        int n = i, prev = 0;
+        for (int syl = 0; syl < 3; syl++, n /= SYLLABLES.length) {
+            // Offset by the previous syllable so neighbors don't all start the same
+            prev = (n + prev) % SYLLABLES.length;
+            sb.append(SYLLABLES[prev]);
+        }
+        if (n > 0)
+            sb.append(n);
+        sb.setCharAt(0, Character.toUpperCase(sb.charAt(0)));
+        return sb.toString();
+    }
+
+    private String getTitle() {
+        String title = "The " + TITLE_WORDS[_rand.nextInt(TITLE_WORDS.length)] + " "
+                + TITLE_WORDS[_rand.nextInt(TITLE_WORDS.length)];
+        return _rand.nextInt(4) == 0 ? title + " Part " + (2 + _rand.nextInt(2)) : title;
+    }
+
+    private static double round(double secs) {
+        return Math.round(secs * 1000) / 1000.0;
+    }
+
+    private static String getName(String key, String defValue) {
+        String name = Config.get(key);
+        return name != null && !name.isEmpty() ? name : defValue;
+    }
+
+    private void writeJson(File file, JsonElement json) throws IOException {
+        write(file, _gson.toJson(json));
+    }
+
+    private static void write(File file, String content) throws IOException {
+        if (!FileUtils.writeToFile(file, content))
+            throw new IOException("Failed to write " + file);
+    }
+
+    private static void mkdirs(File dir) throws IOException {
+        if (!dir.isDirectory() && !dir.mkdirs())
+            throw new IOException("Failed to create " + dir);
+    }
+}
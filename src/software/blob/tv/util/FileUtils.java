@@ -4,9 +4,18 @@ import com.google.gson.JsonElement;
 import com.google.gson.JsonObject;
 import com.google.gson.JsonStreamParser;
 
-import java.io.File;
-import java.io.FileReader;
-import java.io.FileWriter;
+import java.io.*;
+import java.nio.channels.Channels;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardOpenOption;
+import java.security.DigestInputStream;
+import java.security.DigestOutputStream;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
 
 /**
  * Common utilities for file checking and loading
@@ -15,6 +24,20 @@ public class FileUtils {
 
     private static final String TAG = "FileUtils";
 
+    /**
+     * Streams content to a file
+     */
+    public interface WriteCallback {
+        void write(Writer writer) throws IOException;
+    }
+
+    /**
+     * Streams binary content to a file
+     */
+    public interface StreamCallback {
+        void write(OutputStream os) throws IOException;
+    }
+
     public static boolean readableFile(File f, boolean complain) {
         if(!f.exists()) {
             if(complain)
@@ -76,4 +99,120 @@ public class FileUtils {
         }
         return true;
     }
+
+    /**
+     * Stream content to a file (UTF-8) without building it in memory first
+     * @param output Output file
+     * @param callback Writes the content
+     * @return True if written successfully
+     */
+    public static boolean writeToFile(File output, WriteCallback callback) {
+        try (FileChannel fc = FileChannel.open(output.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING);
+             Writer w = new BufferedWriter(Channels.newWriter(fc, StandardCharsets.UTF_8.newEncoder(), 65536))) {
+            callback.write(w);
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing to file: " + output, e);
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Safely replace a file that may be read at any time (i.e. a channel playlist)
+     * The content is written to a temporary file, synced to disk, then atomically moved into place,
+     * so readers only ever see the old or new file. If the content is unchanged the file is left
+     * alone (including its modification time).
+     * @param output Output file
+     * @param callback Writes the content (UTF-8)
+     * @return True if the file is up to date (written or unchanged)
+     */
+    public static boolean publish(File output, WriteCallback callback) {
+        return publishStream(output, os -> {
+            Writer w = new BufferedWriter(new OutputStreamWriter(os, StandardCharsets.UTF_8), 65536);
+            callback.write(w);
+            w.flush();
+        });
+    }
+
+    /**
+     * Same as {@link #publish(File, WriteCallback)} for binary content
+     * @param output Output file
+     * @param callback Writes the content
+     * @return True if the file is up to date (written or unchanged)
+     */
+    public static boolean publishStream(File output, StreamCallback callback) {
+        File dir = output.getAbsoluteFile().getParentFile();
+        File tmp = new File(dir, "." + output.getName() + ".tmp");
+        byte[] hash;
+        try (FileChannel fc = FileChannel.open(tmp.toPath(), StandardOpenOption.WRITE,
+                StandardOpenOption.CREATE, StandardOpenOption.TRUNCATE_EXISTING)) {
+            DigestOutputStream dos = new DigestOutputStream(Channels.newOutputStream(fc), newDigest());
+            OutputStream os = new BufferedOutputStream(dos, 65536);
+            callback.write(os);
+            os.flush();
+            fc.force(true);
+            hash = dos.getMessageDigest().digest();
+        } catch (Exception e) {
+            Log.e(TAG, "Error writing to file: " + tmp, e);
+            tmp.delete();
+            return false;
+        }
+
+        try {
+            if (output.length() == tmp.length() && MessageDigest.isEqual(hash, hash(output))) {
+                Log.d(TAG, "Unchanged: " + output);
+                Files.delete(tmp.toPath());
+                return true;
+            }
+            try {
+                Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.ATOMIC_MOVE,
+                        StandardCopyOption.REPLACE_EXISTING);
+            } catch (AtomicMoveNotSupportedException e) {
+                Files.move(tmp.toPath(), output.toPath(), StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to publish " + output, e);
+            tmp.delete();
+            return false;
+        }
+
+        // Make sure the rename itself is on disk (not supported on all platforms)
+        try (FileChannel dc = FileChannel.open(dir.toPath(), StandardOpenOption.READ)) {
+            dc.force(true);
+        } catch (Exception ignore) {}
+        return true;
+    }
+
+    /**
+     * Compute the SHA-256 hash of a file
+     * @param file File
+     * @return Hash or null if the file doesn't exist
+     * @throws IOException Failed to read the file
+     */
+    public static byte[] hash(File file) throws IOException {
+        if (!file.isFile())
+            return null;
+        try (DigestInputStream dis = new DigestInputStream(new BufferedInputStream(
+                new FileInputStream(file)), newDigest())) {
+            byte[] buf = new byte[65536];
+            while (dis.read(buf) != -1) {
+                // The digest is updated as the file is read
+            }
+            return dis.getMessageDigest().digest();
+        }
+    }
+
+    /**
+     * Create a SHA-256 digest (the hash used for published files)
+     * @return Message digest
+     * @throws IOException SHA-256 isn't available
+     */
+    public static MessageDigest newDigest() throws IOException {
+        try {
+            return MessageDigest.getInstance("SHA-256");
+        } catch (NoSuchAlgorithmException e) {
+            throw new IOException(e);
+        }
+    }
 }
@@ -1,17 +1,81 @@
 package software.blob.tv.util;
 
 import java.io.PrintStream;
+import java.io.PrintWriter;
+import java.io.StringWriter;
 import java.text.SimpleDateFormat;
+import java.util.Date;
 
 /**
  * Android-like log class
+ *
+ * Messages are queued in a bounded ring buffer and printed by a single writer thread, so
+ * logging never waits on the console (unless the buffer fills up, in which case callers wait for
+ * room instead of dropping messages). Messages below the log level are dropped before they're
+ * queued; call sites that build expensive messages should check {@link #isLoggable(int)} first.
  */
 public class Log {
 
-    private static final SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+    public static final int DEBUG = 0, WARNING = 1, ERROR = 2;
+
+    private static final String[] LEVELS = {"DEBUG", "WARNING", "ERROR"};
+    private static final int BUFFER_SIZE = 8192;
+
+    private static class Entry {
+        long time;
+        int level;
+        String tag, msg;
+        Throwable error;
+    }
+
+    // Ring buffer (guarded by the class lock)
+    private static final Entry[] _buffer = new Entry[BUFFER_SIZE];
+    private static long _head, _tail;
+
+    private static volatile int _level = DEBUG;
+    private static volatile boolean _json;
+    private static Thread _writer;
+
+    static {
+        for (int i = 0; i < _buffer.length; i++)
+            _buffer[i] = new Entry();
+        // Print whatever is still queued before exiting
+        Runtime.getRuntime().addShutdownHook(new Thread(Log::flush, "LogFlush"));
+    }
+
+    /**
+     * Set the minimum level of messages to print
+     * @param level Level name ("DEBUG", "WARNING" or "ERROR")
+     */
+    public static void setLevel(String level) {
+        for (int i = 0; i < LEVELS.length; i++) {
+            if (LEVELS[i].equalsIgnoreCase(level)) {
+                _level = i;
+                return;
+            }
+        }
+        w("Log", "Unknown log level: " + level);
+    }
+
+    /**
+     * Print messages as JSON lines instead of plain text
+     * @param json True to print JSON
+     */
+    public static void setJson(boolean json) {
+        _json = json;
+    }
+
+    /**
+     * Check if messages at a given level are printed
+     * @param level {@link #DEBUG}, {@link #WARNING} or {@link #ERROR}
+     * @return True if printed
+     */
+    public static boolean isLoggable(int level) {
+        return level >= _level;
+    }
 
     public static void d(String tag, String msg, Throwable e) {
-        log(tag, msg, e, "DEBUG");
+        log(tag, msg, e, DEBUG);
     }
 
     public static void d(String tag, String msg) {
@@ -19,7 +83,7 @@ public class Log {
     }
 
     public static void w(String tag, String msg, Throwable e) {
-        log(tag, msg, e, "WARNING");
+        log(tag, msg, e, WARNING);
     }
 
     public static void w(String tag, String msg) {
@@ -27,17 +91,138 @@ public class Log {
     }
 
     public static void e(String tag, String msg, Throwable e) {
-        log(tag, msg, e, "ERROR");
+        log(tag, msg, e, ERROR);
     }
 
     public static void e(String tag, String msg) {
         e(tag, msg, null);
     }
 
-    private static void log(String tag, String msg, Throwable e, String type) {
-        PrintStream stream = type.equals("ERROR") ? System.err : System.out;
-        stream.println(sdf.format(System.currentTimeMillis()) + " / " + tag + " [" + type.charAt(0) + "]: " + msg);
-        if(e != null)
-            e.printStackTrace(stream);
+    /**
+     * Wait until every queued message has been printed
+     */
+    public static synchronized void flush() {
+        try {
+            while (_tail < _head)
+                Log.class.wait(100);
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private static void log(String tag, String msg, Throwable e, int level) {
+        if (level < _level)
+            return;
+        long time = System.currentTimeMillis();
+        synchronized (Log.class) {
+            try {
+                while (_head - _tail == _buffer.length)
+                    Log.class.wait();
+            } catch (InterruptedException ie) {
+                Thread.currentThread().interrupt();
+                return;
+            }
+            Entry entry = _buffer[(int) (_head++ % _buffer.length)];
+            entry.time = time;
+            entry.level = level;
+            entry.tag = tag;
+            entry.msg = msg;
+            entry.error = e;
+            if (_writer == null) {
+                _writer = new Thread(Log::write, "LogWriter");
+                _writer.setDaemon(true);
+                _writer.start();
+            }
+            Log.class.notifyAll();
+        }
+    }
+
+    /**
+     * Writer thread
+     */
+    private static void write() {
+        SimpleDateFormat sdf = new SimpleDateFormat("yyyy-MM-dd HH:mm:ss.SSS");
+        Date date = new Date();
+        StringBuilder sb = new StringBuilder();
+        Entry entry = new Entry();
+        while (true) {
+            synchronized (Log.class) {
+                try {
+                    while (_tail == _head)
+                        Log.class.wait();
+                } catch (InterruptedException e) {
+                    return;
+                }
+                // Copy out so the slot can be reused while printing
+                Entry slot = _buffer[(int) (_tail % _buffer.length)];
+                entry.time = slot.time;
+                entry.level = slot.level;
+                entry.tag = slot.tag;
+                entry.msg = slot.msg;
+                entry.error = slot.error;
+                slot.tag = slot.msg = null;
+                slot.error = null;
+            }
+
+            date.setTime(entry.time);
+            sb.setLength(0);
+            if (_json)
+                formatJson(sb, sdf.format(date), entry);
+            else
+                sb.append(sdf.format(date)).append(" / ").append(entry.tag)
+                        .append(" [").append(LEVELS[entry.level].charAt(0)).append("]: ").append(entry.msg);
+            PrintStream stream = entry.level == ERROR ? System.err : System.out;
+            stream.println(sb);
+            if (entry.error != null && !_json)
+                entry.error.printStackTrace(stream);
+
+            // Only counted as written once printed, for flush()
+            synchronized (Log.class) {
+                _tail++;
+                Log.class.notifyAll();
+            }
+        }
+    }
+
+    private static void formatJson(StringBuilder sb, String time, Entry entry) {
+        sb.append("{\"time\":");
+        appendJson(sb, time);
+        sb.append(",\"level\":");
+        appendJson(sb, LEVELS[entry.level]);
+        sb.append(",\"tag\":");
+        appendJson(sb, entry.tag);
+        sb.append(",\"msg\":");
+        appendJson(sb, entry.msg);
+        if (entry.error != null) {
+            StringWriter sw = new StringWriter();
+            entry.error.printStackTrace(new PrintWriter(sw));
+            sb.append(",\"error\":");
+            appendJson(sb, sw.toString());
+        }
+        sb.append('}');
+    }
+
+    private static void appendJson(StringBuilder sb, String str) {
+        if (str == null) {
+            sb.append("null");
+            return;
+        }
+        sb.append('"');
+        for (int i = 0; i < str.length(); i++) {
+            char c = str.charAt(i);
+            switch (c) {
+                case '"': sb.append("\\\""); break;
+                case '\\': sb.append("\\\\"); break;
+                case '\n': sb.append("\\n"); break;
+                case '\r': sb.append("\\r"); break;
+                case '\t': sb.append("\\t"); break;
+                default:
+                    if (c < 0x20)
+                        sb.append(String.format("\\u%04x", (int) c));
+                    else
+                        sb.append(c);
+            }
+        }
+        sb.append('"');
     }
 }
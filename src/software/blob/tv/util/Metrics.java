@@ -0,0 +1,240 @@
+package software.blob.tv.util;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.Writer;
+import java.util.Locale;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Timers and counters for generation runs
+ *
+ * Each timer and counter is kept per channel: work done on a thread is counted toward the channel
+ * set with {@link #setChannel(int)} (or the run itself if none is set). Phases may be nested, so
+ * their times overlap (i.e. slot building includes commercials).
+ *
+ * {@link #export(File, File)} writes everything counted since the last export as JSON and in the
+ * Prometheus text format (for the node_exporter textfile collector).
+ */
+public class Metrics {
+
+    private static final String TAG = "Metrics";
+
+    private static final String RUN = "";
+
+    private static class Stat {
+        final LongAdder count = new LongAdder();
+        final LongAdder nanos = new LongAdder();
+        final AtomicLong maxNanos = new AtomicLong();
+    }
+
+    // Channel -> name -> timer or counter
+    private static volatile Map<String, Map<String, Stat>> _timers = new ConcurrentHashMap<>();
+    private static volatile Map<String, Map<String, Stat>> _counters = new ConcurrentHashMap<>();
+    private static long _startTime = System.currentTimeMillis();
+
+    private static final ThreadLocal<String> _channel = ThreadLocal.withInitial(() -> RUN);
+
+    /**
+     * Count work done on this thread toward a channel
+     * @param number Channel number
+     */
+    public static void setChannel(int number) {
+        _channel.set(String.valueOf(number));
+    }
+
+    /**
+     * Count work done on this thread toward the run instead of a channel
+     */
+    public static void clearChannel() {
+        _channel.set(RUN);
+    }
+
+    /**
+     * Record the time spent in a phase
+     * @param phase Phase name
+     * @param startNanos Start of the phase ({@link System#nanoTime()})
+     */
+    public static void time(String phase, long startNanos) {
+        long nanos = System.nanoTime() - startNanos;
+        Stat stat = getStat(_timers, phase);
+        stat.count.increment();
+        stat.nanos.add(nanos);
+        stat.maxNanos.accumulateAndGet(nanos, Math::max);
+    }
+
+    /**
+     * Increment a counter
+     * @param name Counter name
+     * @param amount Amount to add
+     */
+    public static void count(String name, long amount) {
+        getStat(_counters, name).count.add(amount);
+    }
+
+    public static void count(String name) {
+        count(name, 1);
+    }
+
+    private static Stat getStat(Map<String, Map<String, Stat>> stats, String name) {
+        return stats.computeIfAbsent(_channel.get(), k -> new ConcurrentHashMap<>())
+                .computeIfAbsent(name, k -> new Stat());
+    }
+
+    /**
+     * Write everything counted since the last export and start over
+     * @param jsonFile JSON output file (null to skip)
+     * @param promFile Prometheus text output file (null to skip)
+     */
+    public static void export(File jsonFile, File promFile) {
+        Map<String, Map<String, Stat>> timers, counters;
+        long startTime, endTime = System.currentTimeMillis();
+        synchronized (Metrics.class) {
+            timers = _timers;
+            counters = _counters;
+            startTime = _startTime;
+            _timers = new ConcurrentHashMap<>();
+            _counters = new ConcurrentHashMap<>();
+            _startTime = endTime;
+        }
+
+        // Run totals are the sum of every channel
+        Map<String, long[]> runTimers = sumTimers(timers), runCounters = sumCounters(counters);
+
+        if (jsonFile != null) {
+            FileUtils.publish(jsonFile, w -> {
+                w.write("{\n  \"start\": " + startTime + ",\n  \"end\": " + endTime + ",\n");
+                w.write("  \"run\": ");
+                writeJson(w, runTimers, runCounters);
+                w.write(",\n  \"channels\": {");
+                boolean first = true;
+                Set<String> channels = new TreeSet<>(timers.keySet());
+                channels.addAll(counters.keySet());
+                for (String channel : channels) {
+                    if (channel.equals(RUN))
+                        continue;
+                    w.write((first ? "\n" : ",\n") + "    \"" + channel + "\": ");
+                    writeJson(w, sumTimers(filter(timers, channel)), sumCounters(filter(counters, channel)));
+                    first = false;
+                }
+                w.write("\n  }\n}\n");
+            });
+        }
+
+        if (promFile != null) {
+            FileUtils.publish(promFile, w -> {
+                writeGauge(w, "blobtv_run_start_timestamp_seconds", "Start of the last generation run",
+                        String.format(Locale.US, "%.3f", startTime / 1e3));
+                writeGauge(w, "blobtv_run_duration_seconds", "Duration of the last generation run",
+                        String.format(Locale.US, "%.3f", (endTime - startTime) / 1e3));
+                writeHeader(w, "blobtv_phase_seconds", "Time spent in each phase of the last run");
+                writeTimers(w, "blobtv_phase_seconds", timers, 1);
+                writeHeader(w, "blobtv_phase_calls", "Number of times each phase ran in the last run");
+                writeTimers(w, "blobtv_phase_calls", timers, 0);
+                writeHeader(w, "blobtv_phase_max_seconds", "Longest single run of each phase in the last run");
+                writeTimers(w, "blobtv_phase_max_seconds", timers, 2);
+                writeHeader(w, "blobtv_count", "Counters for the last run");
+                for (Map.Entry<String, Map<String, Stat>> ch : new TreeMap<>(counters).entrySet()) {
+                    for (Map.Entry<String, Stat> e : new TreeMap<>(ch.getValue()).entrySet())
+                        w.write("blobtv_count" + labels(ch.getKey(), "name", e.getKey()) + " "
+                                + e.getValue().count.sum() + "\n");
+                }
+            });
+        }
+        Log.d(TAG, String.format("Exported metrics for %.1f seconds", (endTime - startTime) / 1e3));
+    }
+
+    private static Map<String, Map<String, Stat>> filter(Map<String, Map<String, Stat>> stats, String channel) {
+        Map<String, Map<String, Stat>> ret = new TreeMap<>();
+        if (stats.containsKey(channel))
+            ret.put(channel, stats.get(channel));
+        return ret;
+    }
+
+    /**
+     * Sum timers across channels
+     * @param timers Channel -> phase -> timer
+     * @return Phase -> {count, nanos, max nanos}
+     */
+    private static Map<String, long[]> sumTimers(Map<String, Map<String, Stat>> timers) {
+        Map<String, long[]> ret = new TreeMap<>();
+        for (Map<String, Stat> ch : timers.values()) {
+            for (Map.Entry<String, Stat> e : ch.entrySet()) {
+                long[] sum = ret.computeIfAbsent(e.getKey(), k -> new long[3]);
+                sum[0] += e.getValue().count.sum();
+                sum[1] += e.getValue().nanos.sum();
+                sum[2] = Math.max(sum[2], e.getValue().maxNanos.get());
+            }
+        }
+        return ret;
+    }
+
+    private static Map<String, long[]> sumCounters(Map<String, Map<String, Stat>> counters) {
+        Map<String, long[]> ret = new TreeMap<>();
+        for (Map<String, Stat> ch : counters.values()) {
+            for (Map.Entry<String, Stat> e : ch.entrySet())
+                ret.computeIfAbsent(e.getKey(), k -> new long[1])[0] += e.getValue().count.sum();
+        }
+        return ret;
+    }
+
+    private static void writeJson(Writer w, Map<String, long[]> timers, Map<String, long[]> counters)
+            throws IOException {
+        w.write("{\"phases\": {");
+        boolean first = true;
+        for (Map.Entry<String, long[]> e : timers.entrySet()) {
+            long[] t = e.getValue();
+            w.write(String.format(Locale.US, "%s\"%s\": {\"count\": %d, \"total_ms\": %.3f, \"max_ms\": %.3f}",
+                    first ? "" : ", ", e.getKey(), t[0], t[1] / 1e6, t[2] / 1e6));
+            first = false;
+        }
+        w.write("}, \"counters\": {");
+        first = true;
+        for (Map.Entry<String, long[]> e : counters.entrySet()) {
+            w.write((first ? "" : ", ") + "\"" + e.getKey() + "\": " + e.getValue()[0]);
+            first = false;
+        }
+        w.write("}}");
+    }
+
+    private static void writeHeader(Writer w, String name, String help) throws IOException {
+        w.write("# HELP " + name + " " + help + "\n");
+        w.write("# TYPE " + name + " gauge\n");
+    }
+
+    private static void writeGauge(Writer w, String name, String help, String value) throws IOException {
+        writeHeader(w, name, help);
+        w.write(name + " " + value + "\n");
+    }
+
+    /**
+     * Write one timer field for every channel and phase
+     * @param field 0 = count, 1 = total seconds, 2 = max seconds
+     */
+    private static void writeTimers(Writer w, String name, Map<String, Map<String, Stat>> timers, int field)
+            throws IOException {
+        for (Map.Entry<String, Map<String, Stat>> ch : new TreeMap<>(timers).entrySet()) {
+            for (Map.Entry<String, Stat> e : new TreeMap<>(ch.getValue()).entrySet()) {
+                Stat stat = e.getValue();
+                String value;
+                if (field == 0)
+                    value = String.valueOf(stat.count.sum());
+                else
+                    value = String.format(Locale.US, "%.6f",
+                            (field == 1 ? stat.nanos.sum() : stat.maxNanos.get()) / 1e9);
+                w.write(name + labels(ch.getKey(), "phase", e.getKey()) + " " + value + "\n");
+            }
+        }
+    }
+
+    private static String labels(String channel, String key, String value) {
+        // Work outside of a channel is labeled channel=""
+        return "{channel=\"" + channel + "\"," + key + "=\"" + value + "\"}";
+    }
+}
@@ -2,32 +2,91 @@ package software.blob.tv.util;
 
 import java.security.SecureRandom;
 import java.util.List;
+import java.util.SplittableRandom;
+import java.util.concurrent.atomic.AtomicLong;
 
+/**
+ * Random number methods
+ *
+ * Each thread draws from its own SplittableRandom, so threads never contend for a generator.
+ * Work that should be reproducible (i.e. a channel's playlist for a day) calls {@link #seed(long...)}
+ * first, which derives the thread's stream from the run seed and the given keys, and can then
+ * switch to a sub-stream for each part of the work (i.e. a time slot) with {@link #reseed(long)}.
+ * The same run seed and keys always produce the same numbers, no matter which thread the work
+ * runs on or what else is running.
+ */
 public class RandUtils {
 
-    private static SecureRandom _rand;
-    private static long _randCount = 0;
+    private static final String TAG = "RandUtils";
 
-    private static void checkRandom() {
-        if(_rand == null || _randCount++ == 100) {
-            _rand = new SecureRandom();
-            _randCount = 0;
+    private static final long GOLDEN_GAMMA = 0x9e3779b97f4a7c15L;
+
+    private static volatile long _seed = new SecureRandom().nextLong();
+
+    // Keys for threads that haven't been seeded
+    private static final AtomicLong _threadKeys = new AtomicLong();
+
+    private static final ThreadLocal<Stream> _stream = ThreadLocal.withInitial(
+            () -> new Stream(mix(_seed, _threadKeys.incrementAndGet())));
+
+    private static class Stream {
+        final long base;
+        SplittableRandom rand;
+
+        Stream(long base) {
+            this.base = base;
+            this.rand = new SplittableRandom(base);
         }
     }
 
+    /**
+     * Set the run seed (used by every stream seeded after this)
+     * @param seed Seed
+     */
+    public static void setSeed(long seed) {
+        _seed = seed;
+    }
+
+    /**
+     * Get the run seed (random unless set with {@link #setSeed(long)})
+     * @return Seed
+     */
+    public static long getSeed() {
+        return _seed;
+    }
+
+    /**
+     * Start a reproducible stream on the current thread
+     * @param keys Keys identifying the work (i.e. channel number and date)
+     */
+    public static void seed(long... keys) {
+        long base = _seed;
+        for (long key : keys)
+            base = mix(base, key);
+        _stream.set(new Stream(base));
+    }
+
+    /**
+     * Switch the current thread to a sub-stream of the last {@link #seed(long...)}
+     * Sub-streams don't depend on how many numbers were drawn before switching
+     * @param key Key identifying the part of the work (i.e. time slot)
+     */
+    public static void reseed(long key) {
+        Stream s = _stream.get();
+        s.rand = new SplittableRandom(mix(s.base, key));
+    }
+
     /**
      * Return a random integer between 0 and max (exclusive)
      * @param max Max number
      * @return Random integer
      */
     public static int rand(int max) {
-        checkRandom();
-        return _rand.nextInt(max);
+        return _stream.get().rand.nextInt(max);
     }
 
     public static double rand(double max) {
-        checkRandom();
-        return (int) (_rand.nextDouble() * max);
+        return (int) (_stream.get().rand.nextDouble() * max);
     }
 
     public static Object randomItem(Object[] arr) {
@@ -46,6 +105,19 @@ public class RandUtils {
         return rand(arr.size());
     }
 
+    /**
+     * Shuffle a list in place
+     * @param list List to shuffle
+     */
+    public static <T> void shuffle(List<T> list) {
+        for (int i = list.size() - 1; i > 0; i--) {
+            int j = rand(i + 1);
+            T tmp = list.get(i);
+            list.set(i, list.get(j));
+            list.set(j, tmp);
+        }
+    }
+
     public static Object getItem(Object[] arr, int index) {
         return arr[index % arr.length];
     }
@@ -53,4 +125,17 @@ public class RandUtils {
     public static Object getItem(List<Object> arr, int index) {
         return arr.get(index % arr.size());
     }
+
+    /**
+     * Combine a seed with a key (SplitMix64 finalizer)
+     * @param seed Seed
+     * @param key Key
+     * @return Combined seed
+     */
+    private static long mix(long seed, long key) {
+        long z = seed + (key + 1) * GOLDEN_GAMMA;
+        z = (z ^ (z >>> 30)) * 0xbf58476d1ce4e5b9L;
+        z = (z ^ (z >>> 27)) * 0x94d049bb133111ebL;
+        return z ^ (z >>> 31);
+    }
 }
@@ -0,0 +1,77 @@
+package software.blob.tv.util;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * De-duplicated table of strings used by the binary file formats
+ *
+ * Each string is stored as a 4-byte length followed by its UTF-8 bytes and is referenced
+ * by its offset from the start of the table ({@link #NULL} for null strings).
+ */
+public class StringTable {
+
+    public static final int NULL = -1;
+
+    private final Map<String, Integer> _offsets = new HashMap<>();
+    private final ByteArrayOutputStream _data = new ByteArrayOutputStream();
+
+    /**
+     * Add a string to the table
+     * @param str String (may be null)
+     * @return Offset of the string within the table
+     */
+    public int add(String str) {
+        if (str == null)
+            return NULL;
+        Integer offset = _offsets.get(str);
+        if (offset != null)
+            return offset;
+        offset = _data.size();
+        byte[] bytes = str.getBytes(StandardCharsets.UTF_8);
+        _data.write(bytes.length >>> 24);
+        _data.write(bytes.length >>> 16);
+        _data.write(bytes.length >>> 8);
+        _data.write(bytes.length);
+        _data.write(bytes, 0, bytes.length);
+        _offsets.put(str, offset);
+        return offset;
+    }
+
+    /**
+     * Get the size of the table
+     * @return Size in bytes
+     */
+    public int size() {
+        return _data.size();
+    }
+
+    public void writeTo(OutputStream os) throws IOException {
+        _data.writeTo(os);
+    }
+
+    /**
+     * Read a string from a table
+     * This only uses absolute reads, so it's safe to call from multiple threads
+     * @param buf Buffer containing the table
+     * @param tableStart Position of the table within the buffer
+     * @param offset Offset of the string within the table
+     * @return String or null if offset is {@link #NULL}
+     */
+    public static String read(ByteBuffer buf, int tableStart, int offset) {
+        if (offset == NULL)
+            return null;
+        int pos = tableStart + offset;
+        int len = buf.getInt(pos);
+        byte[] bytes = new byte[len];
+        ByteBuffer dup = buf.duplicate();
+        dup.position(pos + 4);
+        dup.get(bytes);
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
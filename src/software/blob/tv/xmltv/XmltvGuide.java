@@ -0,0 +1,106 @@
+package software.blob.tv.xmltv;
+
+import software.blob.tv.obj.Channel;
+import software.blob.tv.obj.ChannelInfo;
+import software.blob.tv.util.FileUtils;
+import software.blob.tv.util.Log;
+
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.Files;
+import java.util.Date;
+import java.util.Map;
+
+/**
+ * An XMLTV guide file covering every channel over several days
+ *
+ * Programmes are streamed to a scratch file as each day is added, so only one day is held in memory,
+ * and the guide is published once every day is in it. The guide is written separately from the
+ * playlists, so if it fails it's only logged and no more days are added.
+ */
+public class XmltvGuide implements Closeable {
+
+    private static final String TAG = "XmltvGuide";
+
+    private final File _scratch;
+    private final OutputStream _os;
+    private XmltvWriter _writer;
+
+    /**
+     * Start a guide
+     * @param cInfos Channel info list
+     * @throws IOException Failed to create the scratch file
+     */
+    public XmltvGuide(ChannelInfo[] cInfos) throws IOException {
+        _scratch = File.createTempFile("xmltv", ".xml");
+        OutputStream os = null;
+        try {
+            os = new BufferedOutputStream(new FileOutputStream(_scratch), 65536);
+            _writer = new XmltvWriter(os);
+            _writer.writeChannels(cInfos);
+        } catch (IOException e) {
+            if (os != null)
+                os.close();
+            if (!_scratch.delete())
+                Log.w(TAG, "Failed to delete " + _scratch);
+            throw e;
+        }
+        _os = os;
+    }
+
+    /**
+     * Add the programmes of every channel generated for a day
+     * @param cInfos Channel info list
+     * @param channels Generated channels mapped by number
+     * @param date Date the channels were generated for
+     */
+    public void addDay(ChannelInfo[] cInfos, Map<Integer, Channel> channels, Date date) {
+        if (_writer == null)
+            return;
+        try {
+            for (ChannelInfo c : cInfos)
+                _writer.writeProgrammes(c, channels.get(c.number), date);
+        } catch (Exception e) {
+            Log.e(TAG, "Failed to write XMLTV guide", e);
+            _writer = null;
+        }
+    }
+
+    /**
+     * Write the guide
+     * @param file Output file
+     * @return True if written successfully
+     */
+    public boolean save(File file) {
+        if (_writer == null)
+            return false;
+        try {
+            _writer.finish();
+            _os.flush();
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write XMLTV guide", e);
+            return false;
+        }
+        File dir = file.getAbsoluteFile().getParentFile();
+        if (!dir.exists() && !dir.mkdirs())
+            Log.e(TAG, "Failed to create output directory: " + dir);
+        if (!FileUtils.publishStream(file, os -> Files.copy(_scratch.toPath(), os)))
+            return false;
+        Log.d(TAG, "Generated XMLTV guide " + file);
+        return true;
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            _os.close();
+        } finally {
+            if (!_scratch.delete())
+                Log.w(TAG, "Failed to delete " + _scratch);
+        }
+    }
+}
@@ -0,0 +1,211 @@
+package software.blob.tv.xmltv;
+
+import software.blob.tv.obj.*;
+
+import javax.xml.stream.XMLOutputFactory;
+import javax.xml.stream.XMLStreamException;
+import javax.xml.stream.XMLStreamWriter;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.text.SimpleDateFormat;
+import java.util.Calendar;
+import java.util.Date;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Streams an XMLTV electronic program guide (http://wiki.xmltv.org/index.php/XMLTVFormat)
+ *
+ * Each schedule slot is written as a programme, with the episode details taken from the segments
+ * attached by {@link Schedule#readEpisodes(Playlist)}. Programmes are written as they're added,
+ * so the guide never has to be held in memory.
+ */
+public class XmltvWriter {
+
+    private static final String TAG = "XmltvWriter";
+
+    private final XMLStreamWriter _xml;
+    private final SimpleDateFormat _timeFormat = new SimpleDateFormat("yyyyMMddHHmmss Z");
+
+    /**
+     * Start a guide
+     * @param os Output stream (not closed by the writer)
+     * @throws IOException Failed to write
+     */
+    public XmltvWriter(OutputStream os) throws IOException {
+        try {
+            _xml = XMLOutputFactory.newInstance().createXMLStreamWriter(os, "UTF-8");
+            _xml.writeStartDocument("UTF-8", "1.0");
+            _xml.writeCharacters("\n");
+            _xml.writeDTD("<!DOCTYPE tv SYSTEM \"xmltv.dtd\">");
+            _xml.writeCharacters("\n");
+            _xml.writeStartElement("tv");
+            _xml.writeAttribute("generator-info-name", "BlobTV");
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Write the channel definitions (must be written before any programmes)
+     * @param cInfos Channel info list
+     * @throws IOException Failed to write
+     */
+    public void writeChannels(ChannelInfo[] cInfos) throws IOException {
+        try {
+            for (ChannelInfo c : cInfos) {
+                newLine(1);
+                _xml.writeStartElement("channel");
+                _xml.writeAttribute("id", getChannelId(c));
+                if (c.name != null)
+                    writeElement(2, "display-name", c.name);
+                writeElement(2, "display-name", String.valueOf(c.number));
+                newLine(1);
+                _xml.writeEndElement();
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Write the programmes airing on a channel for a day
+     * @param c Channel info
+     * @param chan Generated channel (null if the channel plays a single show all day)
+     * @param date Date the channel was generated for
+     * @throws IOException Failed to write
+     */
+    public void writeProgrammes(ChannelInfo c, Channel chan, Date date) throws IOException {
+        try {
+            if (chan == null || chan.schedule == null || chan.schedule.isEmpty()) {
+                // Only this show, all day
+                if (c.schedule != null && c.schedule.isDirectory())
+                    writeProgramme(c, getTime(date, 0), getTime(date, 1440), c.schedule.getName(), null, null);
+                return;
+            }
+
+            // Episodes are attached to the slots by name
+            Map<String, Segment> episodes = new HashMap<>();
+            for (Segment s : chan.playlist) {
+                if (s.format == Segment.Format.SHOW && s.name != null)
+                    episodes.putIfAbsent(s.name, s);
+            }
+
+            Schedule sched = chan.schedule;
+            // The end of the last slot is wrapped around to the start of the same day's playlist
+            int firstMin = sched.get(0).TimeSlot;
+            if (firstMin > 0)
+                writeSlot(c, date, sched.get(sched.size() - 1), 0, firstMin, episodes);
+            for (int i = 0; i < sched.size(); i++) {
+                int endMin = i < sched.size() - 1 ? sched.get(i + 1).TimeSlot : 1440;
+                writeSlot(c, date, sched.get(i), sched.get(i).TimeSlot, endMin, episodes);
+            }
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Finish the guide
+     * @throws IOException Failed to write
+     */
+    public void finish() throws IOException {
+        try {
+            newLine(0);
+            _xml.writeEndElement();
+            _xml.writeCharacters("\n");
+            _xml.writeEndDocument();
+            _xml.flush();
+        } catch (XMLStreamException e) {
+            throw new IOException(e);
+        }
+    }
+
+    /**
+     * Write a schedule slot as a programme
+     * @param c Channel info
+     * @param date Date the channel was generated for
+     * @param ss Schedule slot
+     * @param startMin Start time (minutes after midnight)
+     * @param endMin End time (minutes after midnight)
+     * @param episodes Episodes in the channel's playlist by name
+     * @throws XMLStreamException Failed to write
+     */
+    private void writeSlot(ChannelInfo c, Date date, ScheduleSlot ss, int startMin, int endMin,
+                           Map<String, Segment> episodes) throws XMLStreamException {
+        Segment episode = null;
+        String subTitle = null;
+        if (ss.Episodes != null && !ss.Episodes.isEmpty()) {
+            if (ss.Episodes.size() == 1) {
+                episode = episodes.get(ss.Episodes.get(0));
+                subTitle = episode != null ? episode.title : null;
+            } else
+                subTitle = ss.getEpisodeString();
+        }
+        writeProgramme(c, getTime(date, startMin), getTime(date, endMin), ss.Show, subTitle, episode);
+    }
+
+    private void writeProgramme(ChannelInfo c, Date start, Date stop, String title, String subTitle,
+                                Segment episode) throws XMLStreamException {
+        newLine(1);
+        _xml.writeStartElement("programme");
+        _xml.writeAttribute("start", _timeFormat.format(start));
+        _xml.writeAttribute("stop", _timeFormat.format(stop));
+        _xml.writeAttribute("channel", getChannelId(c));
+        writeElement(2, "title", title);
+        if (subTitle != null && !subTitle.isEmpty())
+            writeElement(2, "sub-title", subTitle);
+        if (episode != null && episode.episode != null) {
+            // xmltv_ns numbers are zero-based
+            String season = episode.season != null ? String.valueOf(episode.season - 1) : "";
+            newLine(2);
+            _xml.writeStartElement("episode-num");
+            _xml.writeAttribute("system", "xmltv_ns");
+            _xml.writeCharacters(season + "." + (episode.episode - 1) + ".");
+            _xml.writeEndElement();
+            newLine(2);
+            _xml.writeStartElement("episode-num");
+            _xml.writeAttribute("system", "onscreen");
+            _xml.writeCharacters((episode.season != null ? "S" + episode.season : "") + "E" + episode.episode);
+            _xml.writeEndElement();
+        }
+        newLine(1);
+        _xml.writeEndElement();
+    }
+
+    private void writeElement(int depth, String name, String text) throws XMLStreamException {
+        newLine(depth);
+        _xml.writeStartElement(name);
+        _xml.writeCharacters(text);
+        _xml.writeEndElement();
+    }
+
+    private void newLine(int depth) throws XMLStreamException {
+        StringBuilder sb = new StringBuilder("\n");
+        for (int i = 0; i < depth; i++)
+            sb.append('\t');
+        _xml.writeCharacters(sb.toString());
+    }
+
+    private static String getChannelId(ChannelInfo c) {
+        return c.number + ".blobtv";
+    }
+
+    /**
+     * Get the time of a slot on a given day
+     * Slot times are wall clock times, so they stay the same across daylight saving changes
+     * @param date Date
+     * @param mins Minutes after midnight (may be past the end of the day)
+     * @return Time
+     */
+    private static Date getTime(Date date, int mins) {
+        Calendar cal = Calendar.getInstance();
+        cal.setTime(date);
+        cal.add(Calendar.DAY_OF_MONTH, mins / 1440);
+        cal.set(Calendar.HOUR_OF_DAY, (mins % 1440) / 60);
+        cal.set(Calendar.MINUTE, mins % 60);
+        cal.set(Calendar.SECOND, 0);
+        cal.set(Calendar.MILLISECOND, 0);
+        return cal.getTime();
+    }
+}